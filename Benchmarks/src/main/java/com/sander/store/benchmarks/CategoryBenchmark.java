@@ -0,0 +1,74 @@
+package com.sander.store.benchmarks;
+
+import com.sander.store.pojo.Category;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory category operations, path updates while moving subtrees and product membership
+ * changes on categories with many products
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CategoryBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"10", "1000"})
+    public int changed;
+
+    private Category category, subcategory;
+    private List<String> productIds;
+
+    @Setup
+    public void setup() {
+        category = new Category();
+        category.setName("C3");
+        category.setCategoryPath("C1_C2_C3");
+        category.setProducts(IntStream.range(0, size)
+                .mapToObj(CategoryBenchmark::id)
+                .collect(Collectors.toCollection(HashSet::new)));
+
+        subcategory = new Category();
+        subcategory.setName("C5");
+        subcategory.setCategoryPath("C1_C2_C3_C4_C5");
+
+        productIds = IntStream.range(size, size + changed)
+                .mapToObj(CategoryBenchmark::id)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Moves the subcategory and back again, so every invocation starts from the same path
+     */
+    @Benchmark
+    public Category updateCategoryPath() {
+        subcategory.updateCategoryPath("C1_C2", "D1_D2");
+        subcategory.updateCategoryPath("D1_D2", "C1_C2");
+        return subcategory;
+    }
+
+    /**
+     * Adds products and removes them again, so the set size stays the same
+     */
+    @Benchmark
+    public Category addAndRemoveProducts() {
+        category.addProducts(productIds);
+        category.removeProducts(productIds);
+        return category;
+    }
+
+    private static String id(int i) {
+        return String.format("5a1d8b3c2f8e4c1b%08x", i);
+    }
+}
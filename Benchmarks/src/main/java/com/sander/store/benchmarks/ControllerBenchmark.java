@@ -0,0 +1,147 @@
+package com.sander.store.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sander.store.batch.CategoryProductsBatcher;
+import com.sander.store.batch.ProductBatchImporter;
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.cache.CategoryResponseCache;
+import com.sander.store.cache.ProductCache;
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.jobs.JobService;
+import com.sander.store.pojo.Category;
+import com.sander.store.pojo.Product;
+import com.sander.store.pojo.ProductData;
+import com.sander.store.repository.CategoryRepository;
+import com.sander.store.repository.ProductRepository;
+import com.sander.store.rest.CategoryProductRestController;
+import com.sander.store.search.ProductSearchIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Product handlers of {@link CategoryProductRestController} called directly against in-memory
+ * repositories, measuring validation, caching and conversion without HTTP, body binding and database
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ControllerBenchmark {
+
+    private static final int PRODUCTS = 1000, CATEGORIES = 100;
+
+    private CategoryProductRestController controller;
+    private String id, name;
+    private ProductData create, update;
+
+    @Setup
+    public void setup() {
+        ProductRepository productRepository = InMemoryRepositories.products();
+        CategoryRepository categoryRepository = InMemoryRepositories.categories();
+        CurrencyConversionProvider provider =
+                new CurrencyConversionProvider(InMemoryRepositories.currencies(Rates.fixed()), Rates::fixed);
+        provider.reloadRates();
+        ObjectMapper objectMapper = new ObjectMapper();
+        ProductCache productCache = new ProductCache(productRepository, 100000, 600000);
+        ProductSearchIndex productSearchIndex = new ProductSearchIndex(productRepository);
+        CategoryChangeCounter categoryChangeCounter = new CategoryChangeCounter();
+        ChangeLog changeLog = new ChangeLog(null, "benchmark", false, 0);
+
+        controller = new CategoryProductRestController(
+                productRepository,
+                categoryRepository,
+                provider,
+                objectMapper,
+                new JobService(100, 1000),
+                new ProductBatchImporter(productRepository, categoryRepository, provider, productCache,
+                        productSearchIndex, categoryChangeCounter, changeLog, objectMapper),
+                new CategoryProductsBatcher(categoryRepository, new SimpleMeterRegistry(), false, 20, 1000, 4),
+                productCache,
+                productSearchIndex,
+                categoryChangeCounter,
+                changeLog,
+                new CategoryResponseCache(categoryRepository, categoryChangeCounter, objectMapper)
+        );
+
+        String[] currencies = {"EUR", "USD", "JPY", "GBP"};
+        for (int i = 0; i < PRODUCTS; i++)
+            productSearchIndex.index(productRepository.save(
+                    Product.newProduct("Product " + i, 10 + i, currencies[i % currencies.length])));
+
+        List<Product> products = productRepository.findAll();
+        for (int i = 0; i < CATEGORIES; i++) {
+            Category category = new Category();
+            category.setName("category" + i);
+            category.setCategoryPath("category" + i);
+            category.setProducts(products.subList(i * 10, i * 10 + 10).stream()
+                    .map(Product::getId).collect(Collectors.toSet()));
+            categoryRepository.save(category);
+        }
+
+        Product product = products.get(PRODUCTS / 2);
+        id = product.getId();
+        name = product.getName();
+
+        create = new ProductData();
+        create.setName("New");
+        create.setValue(12.5);
+        create.setCurrencyIso("USD");
+
+        update = new ProductData();
+        update.setName(name);
+        update.setValue(100.0);
+    }
+
+    @Benchmark
+    public ResponseEntity<Collection<Product>> readProductById() {
+        return controller.readProducts(id, null, null, null, null, null, null, null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<Collection<Product>> readProductByIdInCurrency() {
+        return controller.readProducts(id, null, "USD", null, null, null, null, null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<Collection<Product>> readProductsByNameInCurrency() {
+        return controller.readProducts(null, name, "JPY", null, null, null, null, null, null);
+    }
+
+    /**
+     * Deletes the created product again, so the repository does not grow during the run
+     */
+    @Benchmark
+    public ResponseEntity<Product> createAndDeleteProduct() {
+        ResponseEntity<Product> created = controller.createProduct(create);
+        return controller.deleteProduct(created.getBody().getId());
+    }
+
+    @Benchmark
+    public ResponseEntity<Collection<Product>> searchProducts() {
+        return controller.searchProducts("product 5", 10);
+    }
+
+    @Benchmark
+    public ResponseEntity<Product> updateProduct() {
+        return controller.updateProduct(id, update, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> readCategories() {
+        return controller.readCategories(null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> readCategoriesGzip() {
+        return controller.readCategories(null, "gzip, deflate");
+    }
+}
@@ -0,0 +1,50 @@
+package com.sander.store.benchmarks;
+
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.pojo.Product;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Currency conversion of a single product, as done for every product of a read with currencyIso.
+ * Every invocation converts a fresh copy of the product, the copy is part of the measurement
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CurrencyBenchmark {
+
+    @Param({"EUR", "USD", "JPY"})
+    public String from;
+
+    @Param({"EUR", "USD", "JPY"})
+    public String to;
+
+    private CurrencyConversionProvider provider;
+    private Product product;
+
+    @Setup
+    public void setup() {
+        provider = new CurrencyConversionProvider(InMemoryRepositories.currencies(Rates.fixed()), Rates::fixed);
+        provider.reloadRates();
+        product = Product.newProduct("Product", 1234.56, from);
+    }
+
+    @Benchmark
+    public Product adaptCurrency() {
+        Product copy = product.copy();
+        provider.adaptCurrency(to, copy);
+        return copy;
+    }
+
+    @Benchmark
+    public Product adaptCurrencyWithSnapshot() {
+        Product copy = product.copy();
+        provider.adaptCurrency(to, copy, provider.getSnapshot());
+        return copy;
+    }
+}
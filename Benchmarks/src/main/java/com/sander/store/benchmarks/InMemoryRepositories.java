@@ -0,0 +1,140 @@
+package com.sander.store.benchmarks;
+
+import com.sander.store.currency.CurrencyRateSet;
+import com.sander.store.pojo.Category;
+import com.sander.store.pojo.Product;
+import com.sander.store.repository.CategoryRepository;
+import com.sander.store.repository.CurrencyRepository;
+import com.sander.store.repository.ProductRepository;
+import org.bson.types.ObjectId;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Map based stand-ins for the Mongo repositories, only the methods used by the benchmarked code
+ * paths are supported. Keeps the database out of the measurements
+ */
+final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static ProductRepository products() {
+        Map<String, Product> products = new ConcurrentHashMap<>();
+        return repository(ProductRepository.class, (method, args) -> {
+            switch (method) {
+                case "save":
+                    Product product = (Product) args[0];
+                    if (product.getId() == null)
+                        product.setId(ObjectId.get().toHexString());
+                    products.put(product.getId(), product.copy());
+                    return product;
+                case "findOne":
+                    Product found = products.get(args[0]);
+                    return found == null ? null : found.copy();
+                case "exists":
+                    return products.containsKey(args[0]);
+                case "updateFields":
+                    // the version is not checked, benchmarks do not write concurrently
+                    Product updated = products.computeIfPresent((String) args[0], (id, stored) -> {
+                        Product copy = stored.copy();
+                        ((Map<String, Object>) args[2]).forEach((field, value) -> {
+                            switch (field) {
+                                case "name": copy.setName((String) value); break;
+                                case "amount": copy.setPrice((Long) value, copy.getScale(), copy.getCurrencyIso()); break;
+                                case "basePrice": copy.setBasePrice((Long) value); break;
+                                default: throw new UnsupportedOperationException(field);
+                            }
+                        });
+                        return copy;
+                    });
+                    return updated == null ? null : updated.copy();
+                case "delete":
+                    products.remove(args[0]);
+                    return null;
+                case "findByName":
+                    return products.values().stream()
+                            .filter(p -> Objects.equals(p.getName(), args[0]))
+                            .map(Product::copy)
+                            .collect(Collectors.toList());
+                case "findAll":
+                    return products.values().stream().map(Product::copy).collect(Collectors.toList());
+                case "count":
+                    return (long) products.size();
+                default:
+                    return unsupported(method);
+            }
+        });
+    }
+
+    static CategoryRepository categories() {
+        Map<String, Category> categories = new ConcurrentHashMap<>();
+        return repository(CategoryRepository.class, (method, args) -> {
+            switch (method) {
+                case "save":
+                    Category category = (Category) args[0];
+                    categories.put(category.getCategoryPath(), category);
+                    return category;
+                case "findOne":
+                case "findByCategoryPath":
+                    return categories.get(args[0]);
+                case "removeProductFromAll":
+                    return categories.values().stream()
+                            .filter(c -> c.getProducts().remove(args[0]))
+                            .count();
+                case "findAll":
+                    return new ArrayList<>(categories.values());
+                default:
+                    return unsupported(method);
+            }
+        });
+    }
+
+    /**
+     * @param rates served as the only and therefore latest rate set
+     */
+    static CurrencyRepository currencies(Map<String, Double> rates) {
+        CurrencyRateSet rateSet = new CurrencyRateSet(1L, rates);
+        return repository(CurrencyRepository.class, (method, args) -> {
+            switch (method) {
+                case "findTopByOrderByVersionDesc":
+                    return rateSet;
+                case "findAll":
+                    return Collections.singletonList(rateSet);
+                default:
+                    return unsupported(method);
+            }
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T repository(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "InMemory" + type.getSimpleName();
+                default:
+                    return handler.invoke(method.getName(), args);
+            }
+        });
+    }
+
+    private static Object unsupported(String method) {
+        throw new UnsupportedOperationException(method + " is not supported by the in-memory repository");
+    }
+}
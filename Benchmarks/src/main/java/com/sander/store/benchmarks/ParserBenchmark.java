@@ -0,0 +1,76 @@
+package com.sander.store.benchmarks;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.sander.store.pojo.CategoryData;
+import com.sander.store.pojo.ProductData;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.json.JacksonJsonParser;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parsing of typical request bodies, into a map as the store used to and bound to the request
+ * types as done by the endpoints now
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    private static final String PRODUCT = "{\"name\":\"Product1\",\"value\":1234.56,\"currencyIso\":\"USD\",\"category\":\"5a1d8b3c2f8e4c1b9c0d7e6f\"}",
+        UPDATE = "{\"name\":\"Product1Update\",\"value\":10000.0}";
+
+    private final JacksonJsonParser parser = new JacksonJsonParser();
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final ObjectReader productReader = objectMapper.readerFor(ProductData.class),
+        categoryReader = objectMapper.readerFor(CategoryData.class);
+    private String categoryProducts;
+
+    @Setup
+    public void setup() {
+        // 100 product ids, as sent when products are added to a category
+        categoryProducts = IntStream.range(0, 100)
+                .mapToObj(i -> String.format("\"5a1d8b3c2f8e4c1b9c%06d\"", i))
+                .collect(Collectors.joining(",", "{\"products\":[", "]}"));
+    }
+
+    @Benchmark
+    public Map<String, Object> product() {
+        return parser.parseMap(PRODUCT);
+    }
+
+    @Benchmark
+    public Map<String, Object> update() {
+        return parser.parseMap(UPDATE);
+    }
+
+    @Benchmark
+    public Map<String, Object> categoryProducts() {
+        return parser.parseMap(categoryProducts);
+    }
+
+    @Benchmark
+    public ProductData productData() throws IOException {
+        return productReader.readValue(PRODUCT);
+    }
+
+    @Benchmark
+    public ProductData updateData() throws IOException {
+        return productReader.readValue(UPDATE);
+    }
+
+    @Benchmark
+    public CategoryData categoryProductsData() throws IOException {
+        return categoryReader.readValue(categoryProducts);
+    }
+}
@@ -0,0 +1,25 @@
+package com.sander.store.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed euro based rates, so results do not depend on the day the benchmarks are run
+ */
+final class Rates {
+
+    private Rates() {
+    }
+
+    static Map<String, Double> fixed() {
+        Map<String, Double> rates = new HashMap<>();
+        rates.put("AUD", 1.5346);
+        rates.put("BGN", 1.9558);
+        rates.put("CHF", 1.1642);
+        rates.put("GBP", 0.88603);
+        rates.put("JPY", 132.0);
+        rates.put("PHP", 60.373);
+        rates.put("USD", 1.1834);
+        return rates;
+    }
+}
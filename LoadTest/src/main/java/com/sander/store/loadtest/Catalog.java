@@ -0,0 +1,119 @@
+package com.sander.store.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Products and categories created before a load test. Names, prices and memberships only depend on
+ * the seed and the sizes of the options, the ids are assigned by the store. Categories already
+ * present, e.g. from a previous run against the same database, are reused as they are, products are
+ * always created
+ */
+class Catalog {
+
+    // top level categories, a separator would make them subcategories of a category nobody created
+    static final String CATEGORY_PREFIX = "loadc", PRODUCT_PREFIX = "Load product ";
+    private static final int CHUNK_SIZE = 5000;
+
+    private final String[] categories;
+    private final String[] products;
+
+    private Catalog(String[] categories, String[] products) {
+        this.categories = categories;
+        this.products = products;
+    }
+
+    /**
+     * Create the categories and products of the options and add products to every category
+     * @param options
+     * @param client
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException if the store rejects a part of the catalog
+     */
+    static Catalog create(LoadTestOptions options, StoreClient client) throws IOException {
+
+        SplittableRandom random = new SplittableRandom(options.getSeed());
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        String[] categories = new String[options.getCategories()];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = CATEGORY_PREFIX + i;
+            int status = client.put("/categories/" + categories[i], null);
+            if (status != 200 && status != 208)
+                throw new IllegalStateException("Could not create category " + categories[i] + ": " + status);
+        }
+
+        String[] products = new String[options.getProducts()];
+        StringBuilder lines = new StringBuilder();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        for (int start = 0; start < products.length; start += CHUNK_SIZE) {
+            int end = Math.min(start + CHUNK_SIZE, products.length);
+
+            lines.setLength(0);
+            for (int i = start; i < end; i++)
+                lines.append("{\"name\":\"").append(PRODUCT_PREFIX).append(i)
+                        .append("\",\"value\":").append(random.nextInt(100, 100000) / 100.0)
+                        .append(",\"currencyIso\":\"EUR\"}\n");
+
+            response.reset();
+            int status = client.putLines("/products/batch?chunkSize=" + CHUNK_SIZE,
+                    lines.toString().getBytes(StandardCharsets.UTF_8), response);
+            if (status != 200)
+                throw new IllegalStateException("Could not create products: " + status);
+
+            int i = start;
+            for (String line : new String(response.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+                if (line.isEmpty())
+                    continue;
+                JsonNode result = objectMapper.readTree(line);
+                if (!"CREATED".equals(result.path("status").asText()))
+                    throw new IllegalStateException("Could not create product " + i + ": " + line);
+                products[i++] = result.path("id").asText();
+            }
+            if (i != end)
+                throw new IllegalStateException("Created " + (i - start) + " of " + (end - start) + " products");
+        }
+
+        StringBuilder body = new StringBuilder();
+        for (String category : categories) {
+            body.setLength(0);
+            body.append("{\"products\":[");
+            for (int i = 0; i < options.getProductsPerCategory(); i++)
+                body.append(i == 0 ? "\"" : ",\"").append(products[random.nextInt(products.length)]).append('"');
+            body.append("]}");
+            int status = client.post("/categories/" + category + "/products/add",
+                    body.toString().getBytes(StandardCharsets.UTF_8));
+            if (status != 200)
+                throw new IllegalStateException("Could not add products to " + category + ": " + status);
+        }
+
+        int converted = client.get("/categories/" + categories[0] + "/products?limit=1&currencyIso=" + options.getCurrency());
+        if (converted != 200)
+            throw new IllegalStateException("Could not convert into " + options.getCurrency() + ": " + converted
+                    + ", are the currency rates loaded?");
+
+        return new Catalog(categories, products);
+    }
+
+    /**
+     * @param random
+     * @return path of a category drawn at random
+     */
+    String category(SplittableRandom random) {
+        return categories[random.nextInt(categories.length)];
+    }
+
+    /**
+     * @param random
+     * @return id of a product drawn at random
+     */
+    String product(SplittableRandom random) {
+        return products[random.nextInt(products.length)];
+    }
+}
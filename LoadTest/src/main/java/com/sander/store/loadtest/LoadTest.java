@@ -0,0 +1,168 @@
+package com.sander.store.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the REST endpoints of a running Store with a mix of requests and reports throughput and
+ * latency percentiles, e.g. against a local StoreApplication on an empty database:
+ * java -jar LoadTest/target/loadtest.jar --threads=32 --duration=120 --mix=product:80,add:20
+ *
+ * A catalog is created first, then every thread sends requests drawn from the mix, the same options
+ * lead to the same sequence of requests. Without a rate the next request of a thread is sent once
+ * the previous one has been answered. With a rate requests are sent on a fixed schedule and their
+ * latency counts from the time they were due, so that a stalled store shows up in the percentiles
+ * instead of just lowering the throughput.
+ *
+ * Every run is stored in a directory of its own below the output directory: the options, a summary,
+ * the percentile distribution of every operation (.hgrm) and the latencies of every second as
+ * HdrHistogram log (latency.hlog, tagged by operation, maximum in milliseconds)
+ */
+public class LoadTest {
+
+    private static final DateTimeFormatter RUN_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final LoadTestOptions options;
+    private final Catalog catalog;
+    private final Results results;
+    private final AtomicBoolean failureReported = new AtomicBoolean();
+
+    private LoadTest(LoadTestOptions options, Catalog catalog) {
+        this.options = options;
+        this.catalog = catalog;
+        this.results = new Results(options.toOperations());
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        // keep one connection per thread alive, only 5 are kept by default
+        System.setProperty("http.maxConnections", String.valueOf(options.getThreads()));
+
+        System.out.println("Creating " + options.getCategories() + " categories and " + options.getProducts()
+                + " products at " + options.getUrl());
+        Catalog catalog = Catalog.create(options, new StoreClient(options.getUrl()));
+
+        Path run = options.getOutput().resolve(LocalDateTime.now().format(RUN_NAME));
+        Files.createDirectories(run);
+        new LoadTest(options, catalog).run(run);
+        System.out.println("Results stored in " + run);
+    }
+
+    private void run(Path run) throws IOException, InterruptedException {
+
+        long start = System.nanoTime();
+        long measured = start + TimeUnit.SECONDS.toNanos(options.getWarmup());
+        long end = measured + TimeUnit.SECONDS.toNanos(options.getDuration());
+
+        Thread[] threads = new Thread[options.getThreads()];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> work(index, start, end), "load-" + i);
+            threads[i].start();
+        }
+
+        System.out.println("Warming up for " + options.getWarmup() + "s");
+        sleepUntil(measured);
+        results.reset();
+
+        try (PrintStream out = new PrintStream(Files.newOutputStream(run.resolve("latency.hlog")), false,
+                StandardCharsets.UTF_8.name())) {
+            HistogramLogWriter log = new HistogramLogWriter(out);
+            log.outputComment("Store load test " + options.toProperties());
+            log.outputLogFormatVersion();
+            long startTime = System.currentTimeMillis();
+            log.outputStartTime(startTime);
+            log.setBaseTime(startTime);
+            log.outputLegend();
+
+            for (long tick = measured + REPORT_INTERVAL; tick < end + REPORT_INTERVAL; tick += REPORT_INTERVAL) {
+                if (tick >= end) {
+                    // answers of the last requests
+                    for (Thread thread : threads)
+                        thread.join();
+                } else {
+                    sleepUntil(tick);
+                }
+                double from = (double) (tick - REPORT_INTERVAL - measured) / REPORT_INTERVAL;
+                double to = (double) (Math.min(tick, end) - measured) / REPORT_INTERVAL;
+                Histogram interval = results.interval(log, from, to);
+                System.out.printf("%5.0fs %10.1f req/s  p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms%n", to,
+                        interval.getTotalCount() / (to - from),
+                        interval.getValueAtPercentile(50) / 1000.0,
+                        interval.getValueAtPercentile(99) / 1000.0,
+                        interval.getMaxValue() / 1000.0);
+            }
+        }
+
+        results.printSummary(System.out, options.getDuration());
+        results.write(run, options, options.getDuration());
+    }
+
+    private void work(int index, long start, long end) {
+
+        SplittableRandom random = new SplittableRandom(options.getSeed() + 1 + index);
+        StoreClient client = new StoreClient(options.getUrl());
+
+        // nanoseconds between two requests of this thread, threads are evenly staggered
+        long interval = options.getRate() == 0 ? 0 :
+                TimeUnit.SECONDS.toNanos(options.getThreads()) / options.getRate();
+        long next = start + interval * index / options.getThreads();
+
+        while (true) {
+            long due;
+            if (interval == 0) {
+                due = System.nanoTime();
+            } else {
+                due = next;
+                next += interval;
+                if (due < end)
+                    sleepUntil(due);
+            }
+            if (due >= end)
+                return;
+
+            Operation operation = options.nextOperation(random);
+            int status;
+            try {
+                status = operation.execute(client, catalog, options.getCurrency(), random);
+            } catch (IOException ex) {
+                if (failureReported.compareAndSet(false, true))
+                    System.err.println(operation.getName() + " failed: " + ex);
+                status = 0;
+            }
+            boolean success = status >= 200 && status < 400;
+            if (!success && status != 0 && failureReported.compareAndSet(false, true))
+                System.err.println(operation.getName() + " failed: " + status);
+            results.record(operation, System.nanoTime() - due, success);
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+            LockSupport.parkNanos(remaining);
+    }
+}
@@ -0,0 +1,232 @@
+package com.sander.store.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Options of a load test given as --name=value, every option has a default. The same options, seed
+ * and catalog size lead to the same catalog and the same sequence of requests per thread
+ */
+class LoadTestOptions {
+
+    static final String USAGE = "usage: java -jar loadtest.jar [--url=http://localhost:8080] [--threads=16]\n" +
+            "    [--warmup=10] [--duration=60] [--rate=0] [--products=10000] [--categories=100]\n" +
+            "    [--products-per-category=100] [--mix=product:40,converted:20,category:15,category-products:15,add:10]\n" +
+            "    [--currency=USD] [--seed=42] [--output=load-results]";
+
+    private String url = "http://localhost:8080";
+    private int threads = 16;
+    private int warmup = 10, duration = 60;
+    private int rate;
+    private int products = 10000, categories = 100, productsPerCategory = 100;
+    private String currency = "USD";
+    private long seed = 42;
+    private Path output = Paths.get("load-results");
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private int[] cumulativeWeights;
+    private Operation[] operations;
+
+    private LoadTestOptions() {
+        mix.put(Operation.PRODUCT, 40);
+        mix.put(Operation.CONVERTED, 20);
+        mix.put(Operation.CATEGORY, 15);
+        mix.put(Operation.CATEGORY_PRODUCTS, 15);
+        mix.put(Operation.ADD, 10);
+    }
+
+    /**
+     * @param args
+     * @return
+     * @throws IllegalArgumentException if an option is unknown or invalid
+     */
+    static LoadTestOptions parse(String[] args) {
+
+        LoadTestOptions options = new LoadTestOptions();
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0)
+                throw new IllegalArgumentException("Invalid option " + arg);
+            String name = arg.substring(2, separator), value = arg.substring(separator + 1);
+
+            try {
+                switch (name) {
+                    case "url":
+                        options.url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                        break;
+                    case "threads":
+                        options.threads = positive(name, Integer.parseInt(value));
+                        break;
+                    case "warmup":
+                        options.warmup = Integer.parseInt(value);
+                        break;
+                    case "duration":
+                        options.duration = positive(name, Integer.parseInt(value));
+                        break;
+                    case "rate":
+                        options.rate = Integer.parseInt(value);
+                        break;
+                    case "products":
+                        options.products = positive(name, Integer.parseInt(value));
+                        break;
+                    case "categories":
+                        options.categories = positive(name, Integer.parseInt(value));
+                        break;
+                    case "products-per-category":
+                        options.productsPerCategory = positive(name, Integer.parseInt(value));
+                        break;
+                    case "mix":
+                        options.mix.clear();
+                        for (String part : value.split(",")) {
+                            String[] weight = part.split(":");
+                            if (weight.length != 2)
+                                throw new IllegalArgumentException("Invalid mix " + value);
+                            options.mix.put(Operation.fromName(weight[0].trim()), Integer.parseInt(weight[1].trim()));
+                        }
+                        break;
+                    case "currency":
+                        options.currency = value;
+                        break;
+                    case "seed":
+                        options.seed = Long.parseLong(value);
+                        break;
+                    case "output":
+                        options.output = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid number in " + arg);
+            }
+        }
+
+        if (options.warmup < 0 || options.rate < 0)
+            throw new IllegalArgumentException("warmup and rate must not be negative");
+        options.initMix();
+        return options;
+    }
+
+    private void initMix() {
+        mix.values().removeIf(weight -> weight == 0);
+        if (mix.isEmpty() || mix.values().stream().anyMatch(weight -> weight < 0))
+            throw new IllegalArgumentException("mix needs at least one positive weight and no negative ones");
+
+        operations = mix.keySet().toArray(new Operation[0]);
+        cumulativeWeights = new int[operations.length];
+        int sum = 0;
+        for (int i = 0; i < operations.length; i++)
+            cumulativeWeights[i] = sum += mix.get(operations[i]);
+    }
+
+    /**
+     * @param random
+     * @return an operation drawn according to the weights of the mix
+     */
+    Operation nextOperation(SplittableRandom random) {
+        int drawn = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; ; i++)
+            if (drawn < cumulativeWeights[i])
+                return operations[i];
+    }
+
+    /**
+     * @return operations of the mix
+     */
+    Collection<Operation> toOperations() {
+        return mix.keySet();
+    }
+
+    /**
+     * @return all options, stored along with the results of a run
+     */
+    Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        properties.setProperty("threads", String.valueOf(threads));
+        properties.setProperty("warmup", String.valueOf(warmup));
+        properties.setProperty("duration", String.valueOf(duration));
+        properties.setProperty("rate", String.valueOf(rate));
+        properties.setProperty("products", String.valueOf(products));
+        properties.setProperty("categories", String.valueOf(categories));
+        properties.setProperty("products-per-category", String.valueOf(productsPerCategory));
+        StringBuilder weights = new StringBuilder();
+        mix.forEach((operation, weight) ->
+                weights.append(weights.length() == 0 ? "" : ",").append(operation.getName()).append(':').append(weight));
+        properties.setProperty("mix", weights.toString());
+        properties.setProperty("currency", currency);
+        properties.setProperty("seed", String.valueOf(seed));
+        return properties;
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0)
+            throw new IllegalArgumentException(name + " must be positive");
+        return value;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return seconds of load before measuring starts
+     */
+    int getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * @return seconds of measured load
+     */
+    int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return requests per second of all threads together, 0 to send the next request as soon as the
+     * previous one has been answered
+     */
+    int getRate() {
+        return rate;
+    }
+
+    int getProducts() {
+        return products;
+    }
+
+    int getCategories() {
+        return categories;
+    }
+
+    int getProductsPerCategory() {
+        return productsPerCategory;
+    }
+
+    /**
+     * @return currency the converted reads ask for
+     */
+    String getCurrency() {
+        return currency;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return directory the results of every run are stored below
+     */
+    Path getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,96 @@
+package com.sander.store.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Requests a load test is mixed of, each against a product or category of the catalog drawn at random
+ */
+enum Operation {
+
+    /**
+     * GET /products?id=..., a single product by id
+     */
+    PRODUCT("product") {
+        @Override
+        int execute(StoreClient client, Catalog catalog, String currency, SplittableRandom random) throws IOException {
+            return client.get("/products?id=" + catalog.product(random));
+        }
+    },
+
+    /**
+     * GET /products?id=...&currencyIso=..., a single product converted into the currency of the options
+     */
+    CONVERTED("converted") {
+        @Override
+        int execute(StoreClient client, Catalog catalog, String currency, SplittableRandom random) throws IOException {
+            return client.get("/products?id=" + catalog.product(random) + "&currencyIso=" + currency);
+        }
+    },
+
+    /**
+     * GET /categories/{path}, a category and its subcategories
+     */
+    CATEGORY("category") {
+        @Override
+        int execute(StoreClient client, Catalog catalog, String currency, SplittableRandom random) throws IOException {
+            return client.get("/categories/" + catalog.category(random));
+        }
+    },
+
+    /**
+     * GET /categories/{path}/products?limit=20&currencyIso=..., the first page of products of a
+     * category, converted into the currency of the options
+     */
+    CATEGORY_PRODUCTS("category-products") {
+        @Override
+        int execute(StoreClient client, Catalog catalog, String currency, SplittableRandom random) throws IOException {
+            return client.get("/categories/" + catalog.category(random) + "/products?limit=20&currencyIso=" + currency);
+        }
+    },
+
+    /**
+     * POST /categories/{path}/products/add, adds a product to a category, most of the time one
+     * which is not yet part of it
+     */
+    ADD("add") {
+        @Override
+        int execute(StoreClient client, Catalog catalog, String currency, SplittableRandom random) throws IOException {
+            byte[] body = ("{\"products\":[\"" + catalog.product(random) + "\"]}").getBytes(StandardCharsets.UTF_8);
+            return client.post("/categories/" + catalog.category(random) + "/products/add", body);
+        }
+    };
+
+    private final String name;
+
+    Operation(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Send the request and read the whole response
+     * @param client
+     * @param catalog
+     * @param currency
+     * @param random
+     * @return status of the response
+     * @throws IOException
+     */
+    abstract int execute(StoreClient client, Catalog catalog, String currency, SplittableRandom random)
+            throws IOException;
+
+    /**
+     * @return name used in options and reports
+     */
+    String getName() {
+        return name;
+    }
+
+    static Operation fromName(String name) {
+        for (Operation operation : values())
+            if (operation.name.equals(name))
+                return operation;
+        throw new IllegalArgumentException("Unknown operation " + name);
+    }
+}
@@ -0,0 +1,147 @@
+package com.sander.store.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of successful requests in microseconds per operation and the number of failed ones.
+ * Load test threads record concurrently, intervals are taken and accumulated by a single reporting
+ * thread
+ */
+class Results {
+
+    static final String ALL = "all";
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> totals = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> intervals = new EnumMap<>(Operation.class);
+    private final Histogram all = new Histogram(3);
+
+    Results(Collection<Operation> operations) {
+        for (Operation operation : operations) {
+            recorders.put(operation, new Recorder(3));
+            Histogram total = new Histogram(3);
+            total.setTag(operation.getName());
+            totals.put(operation, total);
+            errors.put(operation, new LongAdder());
+        }
+        all.setTag(ALL);
+    }
+
+    /**
+     * @param operation
+     * @param nanos time from the intended start of the request until its response has been read
+     * @param success
+     */
+    void record(Operation operation, long nanos, boolean success) {
+        if (success)
+            recorders.get(operation).recordValue(nanos / 1000);
+        else
+            errors.get(operation).increment();
+    }
+
+    /**
+     * Drop everything recorded so far, e.g. during the warmup
+     */
+    void reset() {
+        recorders.values().forEach(Recorder::reset);
+        errors.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Add the latencies recorded since the previous interval to the totals and log them per operation
+     * @param log
+     * @param start seconds since the start of the log
+     * @param end seconds since the start of the log
+     * @return latencies of all operations within the interval
+     */
+    Histogram interval(HistogramLogWriter log, double start, double end) {
+
+        Histogram combined = new Histogram(3);
+        recorders.forEach((operation, recorder) -> {
+            // recycled, every recorder only takes back its own histograms
+            Histogram interval = recorder.getIntervalHistogram(intervals.get(operation));
+            intervals.put(operation, interval);
+            interval.setTag(operation.getName());
+            log.outputIntervalHistogram(start, end, interval, MICROS_PER_MILLI);
+            totals.get(operation).add(interval);
+            combined.add(interval);
+        });
+        all.add(combined);
+        return combined;
+    }
+
+    /**
+     * Print throughput, errors and percentiles in milliseconds per operation and for all together
+     * @param out
+     * @param seconds measured time
+     */
+    void printSummary(PrintStream out, double seconds) {
+        out.printf("%-18s %10s %10s %8s %9s %9s %9s %9s%n",
+                "operation", "count", "req/s", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        long allErrors = 0;
+        for (Operation operation : totals.keySet()) {
+            long failed = errors.get(operation).sum();
+            allErrors += failed;
+            printLine(out, totals.get(operation), failed, seconds);
+        }
+        printLine(out, all, allErrors, seconds);
+    }
+
+    /**
+     * Write the summary, the options and the percentile distribution of every operation below the
+     * directory of the run
+     * @param run
+     * @param options
+     * @param seconds measured time
+     * @throws IOException
+     */
+    void write(Path run, LoadTestOptions options, double seconds) throws IOException {
+
+        try (PrintStream out = print(run.resolve("summary.txt"))) {
+            printSummary(out, seconds);
+        }
+        try (OutputStream out = Files.newOutputStream(run.resolve("run.properties"))) {
+            options.toProperties().store(out, "Store load test");
+        }
+        for (Histogram histogram : totals.values())
+            writeDistribution(run, histogram);
+        writeDistribution(run, all);
+    }
+
+    private static void writeDistribution(Path run, Histogram histogram) throws IOException {
+        try (PrintStream out = print(run.resolve(histogram.getTag() + ".hgrm"))) {
+            histogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+        }
+    }
+
+    private static void printLine(PrintStream out, Histogram histogram, long errors, double seconds) {
+        out.printf("%-18s %10d %10.1f %8d %9.3f %9.3f %9.3f %9.3f%n",
+                histogram.getTag(),
+                histogram.getTotalCount(),
+                histogram.getTotalCount() / seconds,
+                errors,
+                histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    private static PrintStream print(Path file) throws IOException {
+        return new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,93 @@
+package com.sander.store.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Minimal HTTP client of one load test thread. Responses are always read completely, so that the
+ * connection is kept alive and reused by the next request of the thread, see http.maxConnections
+ */
+class StoreClient {
+
+    private static final String JSON = "application/json", NDJSON = "application/x-ndjson";
+
+    private final String url;
+    private final byte[] buffer = new byte[8192];
+
+    StoreClient(String url) {
+        this.url = url;
+    }
+
+    /**
+     * @param path including the query
+     * @return status of the response, the body is discarded
+     * @throws IOException
+     */
+    int get(String path) throws IOException {
+        return exchange("GET", path, null, null, null);
+    }
+
+    /**
+     * @param path including the query
+     * @param body JSON
+     * @return status of the response, the body is discarded
+     * @throws IOException
+     */
+    int post(String path, byte[] body) throws IOException {
+        return exchange("POST", path, body, JSON, null);
+    }
+
+    /**
+     * @param path including the query
+     * @param body JSON or null for none
+     * @return status of the response, the body is discarded
+     * @throws IOException
+     */
+    int put(String path, byte[] body) throws IOException {
+        return exchange("PUT", path, body, JSON, null);
+    }
+
+    /**
+     * @param path including the query
+     * @param body newline delimited JSON
+     * @param response receives the body of the response
+     * @return status of the response
+     * @throws IOException
+     */
+    int putLines(String path, byte[] body, ByteArrayOutputStream response) throws IOException {
+        return exchange("PUT", path, body, NDJSON, response);
+    }
+
+    private int exchange(String method, String path, byte[] body, String contentType, OutputStream response)
+            throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setUseCaches(false);
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (input != null) {
+            try (InputStream in = input) {
+                int read;
+                while ((read = in.read(buffer)) >= 0)
+                    if (response != null)
+                        response.write(buffer, 0, read);
+            }
+        }
+        return status;
+    }
+}
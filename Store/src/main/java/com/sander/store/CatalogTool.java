@@ -0,0 +1,87 @@
+package com.sander.store;
+
+import com.sander.store.batch.CatalogTransfer;
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.cache.ProductCache;
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.ResourceCurrencyRateSource;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Profile;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Exports the catalog to or imports it from a file without starting the web server, using the
+ * configuration of the application but only the beans a transfer needs. The search index, the
+ * change log tailer and the migrations are left out, running servers pick up an import through
+ * the change log, e.g.
+ * java -cp Store-0.0.1-SNAPSHOT-exec.jar -Dloader.main=com.sander.store.CatalogTool
+ *     org.springframework.boot.loader.PropertiesLauncher export catalog.ndjson.gz
+ */
+public class CatalogTool {
+
+    static final String PROFILE = "catalog-tool";
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("usage: CatalogTool export|import <file> [--property=value ...]");
+            System.exit(2);
+        }
+
+        // command line properties override the configuration of the application, given ones win
+        String[] properties = {
+                // the changes of the tool have to be picked up by a server on the same host
+                "--store.changes.node=catalog-tool"
+        };
+        String[] arguments = new String[properties.length + args.length];
+        System.arraycopy(properties, 0, arguments, 0, properties.length);
+        System.arraycopy(args, 0, arguments, properties.length, args.length);
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ToolConfiguration.class)
+                .profiles(PROFILE)
+                .web(false)
+                .run(arguments)) {
+
+            CatalogTransfer catalogTransfer = context.getBean(CatalogTransfer.class);
+            Map<String, Long> counts;
+
+            if (args[0].equals("export")) {
+                try (FileChannel file = FileChannel.open(Paths.get(args[1]), CREATE, WRITE, TRUNCATE_EXISTING)) {
+                    counts = catalogTransfer.export(file);
+                }
+            } else {
+                try (FileChannel file = FileChannel.open(Paths.get(args[1]), READ)) {
+                    counts = catalogTransfer.importFrom(file);
+                }
+            }
+
+            System.out.println(args[0] + "ed " + counts);
+        }
+    }
+
+    /**
+     * Only active for the tool, a server picks it up by its component scan but ignores it. The
+     * repositories are found below this package
+     */
+    @Configuration
+    @Profile(PROFILE)
+    @EnableAutoConfiguration
+    @Import({CatalogTransfer.class, ProductCache.class, CategoryChangeCounter.class, CurrencyConversionProvider.class,
+            ResourceCurrencyRateSource.class, ChangeLog.class})
+    static class ToolConfiguration {
+    }
+}
@@ -0,0 +1,267 @@
+package com.sander.store.batch;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.cache.ProductCache;
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.CurrencyRateSet;
+import com.sander.store.pojo.Category;
+import com.sander.store.pojo.Product;
+import com.sander.store.repository.CategoryRepository;
+import com.sander.store.search.ProductSearchIndex;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports and imports the whole catalog, i.e. all products, categories and currency rate sets, as
+ * gzip'd newline delimited JSON. Every line holds one stored document under the name of its
+ * collection in strict extended JSON, e.g. {"product":{"_id":{"$oid":"..."},"amount":{"$numberLong":"1234"},...}},
+ * so documents round trip unchanged, including the BSON types of their numbers.
+ *
+ * Documents are streamed from database cursors on export and written with one unordered bulk
+ * upsert per chunk on import, memory usage does not depend on the size of the catalog. Imports
+ * are idempotent, existing documents with the same id are replaced and the products of imported
+ * categories are ordered again, see {@link CategoryRepository#sortProducts(java.util.Collection)}. An export is not a snapshot,
+ * documents written while it runs may or may not be contained.
+ *
+ * Other nodes pick up imported documents through the change log. The search index of this node,
+ * if it has one, is updated chunk by chunk instead of being rebuilt
+ */
+@Component
+public class CatalogTransfer {
+
+    static final int CHUNK_SIZE = 1000, BUFFER_SIZE = 1 << 16;
+    private static final String ID = "_id";
+    private static final JsonWriterSettings JSON = new JsonWriterSettings(JsonMode.STRICT);
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CatalogTransfer.class);
+    private final MongoOperations mongoOperations;
+    private final CategoryRepository categoryRepository;
+    private final ProductCache productCache;
+    private final Optional<ProductSearchIndex> productSearchIndex;
+    private final CategoryChangeCounter categoryChangeCounter;
+    private final CurrencyConversionProvider currencyConversionProvider;
+    private final ChangeLog changeLog;
+    private final List<String> collections = new ArrayList<>();
+
+    @Autowired
+    public CatalogTransfer(
+            MongoOperations mongoOperations,
+            CategoryRepository categoryRepository,
+            ProductCache productCache,
+            Optional<ProductSearchIndex> productSearchIndex,
+            CategoryChangeCounter categoryChangeCounter,
+            CurrencyConversionProvider currencyConversionProvider,
+            ChangeLog changeLog
+    ) {
+        this.mongoOperations = mongoOperations;
+        this.categoryRepository = categoryRepository;
+        this.productCache = productCache;
+        this.productSearchIndex = productSearchIndex;
+        this.categoryChangeCounter = categoryChangeCounter;
+        this.currencyConversionProvider = currencyConversionProvider;
+        this.changeLog = changeLog;
+        for (Class<?> type : new Class<?>[]{CurrencyRateSet.class, Category.class, Product.class})
+            collections.add(mongoOperations.getCollectionName(type));
+    }
+
+    /**
+     * Write all documents gzip'd to the channel, the channel is not closed
+     * @param channel
+     * @return number of exported documents by collection
+     * @throws IOException
+     */
+    public Map<String, Long> export(WritableByteChannel channel) throws IOException {
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(Channels.newOutputStream(channel)), BUFFER_SIZE);
+
+        try (Writer writer = new OutputStreamWriter(gzip, StandardCharsets.UTF_8)) {
+            for (String collection : collections) {
+                long count = 0;
+                try (DBCursor cursor = mongoOperations.getCollection(collection).find().batchSize(CHUNK_SIZE)) {
+                    while (cursor.hasNext()) {
+                        writer.write(new BasicDBObject(collection, cursor.next()).toJson(JSON));
+                        writer.write('\n');
+                        count++;
+                    }
+                }
+                counts.put(collection, count);
+            }
+        }
+
+        LOGGER.info("Exported " + counts);
+        return counts;
+    }
+
+    /**
+     * Replace or insert all documents read from the channel, gzip'd or plain, and drop all derived
+     * state afterwards. Lines of unknown collections are skipped, after a failure the remaining
+     * partial chunks are not written
+     * @param channel
+     * @return number of imported documents by collection
+     * @throws IOException
+     * @throws IllegalArgumentException if a line is no valid document, the lines before are imported
+     */
+    public Map<String, Long> importFrom(ReadableByteChannel channel) throws IOException {
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        Map<String, List<DBObject>> chunks = new HashMap<>();
+        collections.forEach(collection -> {
+            counts.put(collection, 0L);
+            chunks.put(collection, new ArrayList<>(CHUNK_SIZE));
+        });
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                decompressed(Channels.newInputStream(channel)), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty())
+                    continue;
+
+                DBObject entry = parse(line, number);
+                for (String collection : entry.keySet()) {
+                    List<DBObject> chunk = chunks.get(collection);
+                    if (chunk == null)
+                        continue;
+                    chunk.add((DBObject) entry.get(collection));
+                    if (chunk.size() == CHUNK_SIZE)
+                        counts.merge(collection, write(collection, chunk), Long::sum);
+                }
+            }
+            chunks.forEach((collection, chunk) -> counts.merge(collection, write(collection, chunk), Long::sum));
+        } catch (IOException | RuntimeException ex) {
+            // full chunks may have been written already
+            try {
+                refresh();
+            } catch (RuntimeException refreshFailure) {
+                ex.addSuppressed(refreshFailure);
+            }
+            throw ex;
+        }
+        refresh();
+
+        LOGGER.info("Imported " + counts);
+        return counts;
+    }
+
+    private long write(String collection, List<DBObject> chunk) {
+
+        if (chunk.isEmpty())
+            return 0;
+
+        DBCollection target = mongoOperations.getCollection(collection);
+        BulkWriteOperation bulk = target.initializeUnorderedBulkOperation();
+        for (DBObject document : chunk)
+            bulk.find(new BasicDBObject(ID, document.get(ID))).upsert().replaceOne(document);
+        bulk.execute();
+
+        List<String> ids = new ArrayList<>(chunk.size());
+        chunk.forEach(document -> ids.add(document.get(ID).toString()));
+        if (collection.equals(mongoOperations.getCollectionName(Product.class))) {
+            changeLog.publish(ChangeLog.Type.PRODUCT, ids);
+            productSearchIndex.ifPresent(index -> chunk.forEach(document ->
+                    index.index(mongoOperations.getConverter().read(Product.class, document))));
+        } else if (collection.equals(mongoOperations.getCollectionName(Category.class))) {
+            categoryRepository.sortProducts(ids);
+        }
+
+        long written = chunk.size();
+        chunk.clear();
+        return written;
+    }
+
+    /**
+     * Products, categories and rates have been replaced, everything derived from them is stale
+     */
+    private void refresh() {
+        productCache.invalidateAll();
+        categoryChangeCounter.increment();
+        currencyConversionProvider.reloadRates();
+        changeLog.publish(ChangeLog.Type.CATEGORY);
+        changeLog.publish(ChangeLog.Type.CURRENCY);
+    }
+
+    private static DBObject parse(String line, int number) {
+
+        DBObject entry;
+        try {
+            entry = BasicDBObject.parse(line);
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Invalid JSON in line " + number, ex);
+        }
+
+        if (entry.keySet().isEmpty())
+            throw new IllegalArgumentException("No document in line " + number);
+        for (String collection : entry.keySet()) {
+            Object document = entry.get(collection);
+            if (!(document instanceof DBObject) || ((DBObject) document).get(ID) == null)
+                throw new IllegalArgumentException("No document with id in line " + number);
+        }
+        return entry;
+    }
+
+    /**
+     * @return the input inflated if it starts with the gzip magic number
+     */
+    private static InputStream decompressed(InputStream input) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+        buffered.mark(2);
+        int magic = buffered.read() | (buffered.read() << 8);
+        buffered.reset();
+        return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(buffered, BUFFER_SIZE) : buffered;
+    }
+
+    /**
+     * Lets the gzip trailer be written without closing the underlying channel
+     */
+    private static class NonClosingOutputStream extends java.io.FilterOutputStream {
+
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.sander.store.batch;
+
+import com.mongodb.BulkWriteResult;
+import com.sander.store.repository.CategoryRepository;
+import com.sander.store.rest.UpdateResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds and removes products of categories. If enabled, the changes of one category arriving within
+ * the window are coalesced into one net delta, the last change of a product wins, and written with
+ * a single bulk write once the window has passed or the batch reached its maximum size. All
+ * requests of a batch wait for the write and share its result, matched and modified are counted
+ * per category.
+ *
+ * Every category is flushed by one of several single threads chosen by its path, so the batches of
+ * a category are written in the order they were opened while other categories are written
+ * concurrently. Flushes are timed as store.category.batches.flushes, the number of requests
+ * and of changed products per batch are recorded as store.category.batches.requests and
+ * store.category.batches.products
+ */
+@Component
+public class CategoryProductsBatcher {
+
+    private static final String TRIGGER = "trigger", WINDOW = "window", SIZE = "size";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CategoryProductsBatcher.class);
+    private final CategoryRepository categoryRepository;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long window;
+    private final int maxSize;
+    private final Map<String, Batch> open = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService[] flushers;
+
+    @Autowired
+    public CategoryProductsBatcher(
+            CategoryRepository categoryRepository,
+            MeterRegistry meterRegistry,
+            @Value("${store.category-batches.enabled:false}") boolean enabled,
+            @Value("${store.category-batches.window:20}") long window,
+            @Value("${store.category-batches.max-size:1000}") int maxSize,
+            @Value("${store.category-batches.flushers:4}") int flushers
+    ) {
+        if (flushers < 1)
+            throw new IllegalArgumentException("At least one flusher is needed");
+
+        this.categoryRepository = categoryRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.window = window;
+        this.maxSize = maxSize;
+        this.flushers = new ScheduledExecutorService[enabled ? flushers : 0];
+        for (int i = 0; i < this.flushers.length; i++) {
+            String name = "category-batches-" + i;
+            this.flushers[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Add and remove products of a category, waits for the batch if batching is enabled
+     * @param categoryPath
+     * @param added
+     * @param removed
+     * @return number of matched and modified categories
+     */
+    public UpdateResult updateProducts(String categoryPath, Collection<String> added, Collection<String> removed) {
+
+        if (!enabled) {
+            BulkWriteResult result = categoryRepository.updateProducts(categoryPath, added, removed);
+            return new UpdateResult(Math.min(result.getMatchedCount(), 1), Math.min(result.getModifiedCount(), 1));
+        }
+
+        ScheduledExecutorService flusher = flushers[Math.floorMod(categoryPath.hashCode(), flushers.length)];
+        Batch batch = open.compute(categoryPath, (path, current) -> {
+            Batch next = current == null ? new Batch() : current;
+            next.add(added, removed);
+            if (current == null)
+                flusher.schedule(() -> flush(path, next, WINDOW), window, TimeUnit.MILLISECONDS);
+            return next;
+        });
+
+        // flushed by the flusher of the category as well, so that its batches stay in order
+        if (batch.size >= maxSize)
+            flusher.execute(() -> flush(categoryPath, batch, SIZE));
+
+        try {
+            return batch.result.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw ex;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (ScheduledExecutorService flusher : flushers)
+            flusher.shutdownNow();
+        open.values().forEach(batch -> batch.result.completeExceptionally(
+                new IllegalStateException("Category batches have been stopped")));
+    }
+
+    private void flush(String categoryPath, Batch batch, String trigger) {
+
+        // flushed already, e.g. by size before the window passed
+        if (!open.remove(categoryPath, batch))
+            return;
+
+        List<String> added = new ArrayList<>(), removed = new ArrayList<>();
+        batch.delta.forEach((product, add) -> (add ? added : removed).add(product));
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        UpdateResult updated = null;
+        Exception failure = null;
+        try {
+            BulkWriteResult result = categoryRepository.updateProducts(categoryPath, added, removed);
+            updated = new UpdateResult(Math.min(result.getMatchedCount(), 1), Math.min(result.getModifiedCount(), 1));
+        } catch (Exception ex) {
+            LOGGER.error("Could not update products of " + categoryPath, ex);
+            failure = ex;
+        }
+
+        // recorded before the requests are answered
+        sample.stop(meterRegistry.timer("store.category.batches.flushes", TRIGGER, trigger));
+        meterRegistry.summary("store.category.batches.requests", TRIGGER, trigger).record(batch.requests);
+        meterRegistry.summary("store.category.batches.products", TRIGGER, trigger).record(batch.delta.size());
+
+        if (failure == null)
+            batch.result.complete(updated);
+        else
+            batch.result.completeExceptionally(failure);
+    }
+
+    /**
+     * Net delta of a category, only changed while it is open and read once it has been removed
+     */
+    private static class Batch {
+
+        private final Map<String, Boolean> delta = new LinkedHashMap<>();
+        private final CompletableFuture<UpdateResult> result = new CompletableFuture<>();
+        private int requests;
+        private volatile int size;
+
+        private void add(Collection<String> added, Collection<String> removed) {
+            added.forEach(product -> delta.put(product, Boolean.TRUE));
+            removed.forEach(product -> delta.put(product, Boolean.FALSE));
+            requests++;
+            size = delta.size();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.sander.store.batch;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Result of a single line of a batch import
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class LineResult {
+
+    public enum Status { CREATED, INVALID, FAILED, SKIPPED }
+
+    private final long line;
+    private final Status status;
+    private final String id, error;
+
+    private LineResult(long line, Status status, String id, String error) {
+        this.line = line;
+        this.status = status;
+        this.id = id;
+        this.error = error;
+    }
+
+    static LineResult created(long line, String id) {
+        return new LineResult(line, Status.CREATED, id, null);
+    }
+
+    static LineResult invalid(long line, String error) {
+        return new LineResult(line, Status.INVALID, null, error);
+    }
+
+    static LineResult failed(long line, String error) {
+        return new LineResult(line, Status.FAILED, null, error);
+    }
+
+    static LineResult skipped(long line) {
+        return new LineResult(line, Status.SKIPPED, null, "Not inserted after previous failure");
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
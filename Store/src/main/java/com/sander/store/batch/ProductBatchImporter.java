@@ -0,0 +1,219 @@
+package com.sander.store.batch;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mongodb.BulkWriteError;
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.cache.ProductCache;
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.CurrencyRateSnapshot;
+import com.sander.store.exceptions.InvalidProductException;
+import com.sander.store.pojo.Product;
+import com.sander.store.pojo.ProductData;
+import com.sander.store.repository.CategoryRepository;
+import com.sander.store.repository.ProductRepository;
+import com.sander.store.search.ProductSearchIndex;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates products from newline delimited JSON, one product per line validated like a single
+ * created product. Valid products are inserted in chunks with one bulk write each, category
+ * memberships of a chunk are added with one update per category.
+ *
+ * The next chunk is only read after the previous one has been written, so a client sending
+ * faster than the database accepts is slowed down by the connection itself
+ */
+@Component
+public class ProductBatchImporter {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ProductBatchImporter.class);
+    private final ProductRepository productRepository;
+    private final CategoryRepository categoryRepository;
+    private final CurrencyConversionProvider currencyConversionProvider;
+    private final ProductCache productCache;
+    private final ProductSearchIndex productSearchIndex;
+    private final CategoryChangeCounter categoryChangeCounter;
+    private final ChangeLog changeLog;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    @Autowired
+    public ProductBatchImporter(
+            ProductRepository productRepository,
+            CategoryRepository categoryRepository,
+            CurrencyConversionProvider currencyConversionProvider,
+            ProductCache productCache,
+            ProductSearchIndex productSearchIndex,
+            CategoryChangeCounter categoryChangeCounter,
+            ChangeLog changeLog,
+            ObjectMapper objectMapper
+    ) {
+        this.productRepository = productRepository;
+        this.categoryRepository = categoryRepository;
+        this.currencyConversionProvider = currencyConversionProvider;
+        this.productCache = productCache;
+        this.productSearchIndex = productSearchIndex;
+        this.categoryChangeCounter = categoryChangeCounter;
+        this.changeLog = changeLog;
+        this.reader = objectMapper.readerFor(ProductData.class);
+        this.writer = objectMapper.writerFor(LineResult.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Read products from input and write one {@link LineResult} per non empty line to output,
+     * results are flushed after every chunk
+     *
+     * @param input newline delimited JSON products
+     * @param output newline delimited JSON results
+     * @param chunkSize max number of lines per bulk write
+     * @param ordered stop inserting a chunk at the first failure
+     * @throws IOException
+     */
+    public void importProducts(InputStream input, OutputStream output, int chunkSize, boolean ordered) throws IOException {
+
+        BufferedReader lines = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        JsonGenerator generator = writer.getFactory().createGenerator(output);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+
+        CurrencyRateSnapshot rates = currencyConversionProvider.getSnapshot();
+        List<Line> chunk = new ArrayList<>(chunkSize);
+        String text;
+        long lineNumber = 0;
+
+        while ((text = lines.readLine()) != null) {
+            lineNumber++;
+            if (text.trim().isEmpty())
+                continue;
+
+            chunk.add(parse(lineNumber, text, rates));
+            if (chunk.size() == chunkSize) {
+                write(chunk, ordered, generator);
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty())
+            write(chunk, ordered, generator);
+        generator.close();
+    }
+
+    private Line parse(long lineNumber, String text, CurrencyRateSnapshot rates) {
+        try {
+            ProductData data = reader.readValue(text);
+            Product product = Product.fromData(data, rates);
+            product.setId(ObjectId.get().toHexString());
+            return new Line(lineNumber, product, data.getCategory());
+        } catch (InvalidProductException ex) {
+            return new Line(lineNumber, LineResult.invalid(lineNumber, ex.getMessage()));
+        } catch (IOException | RuntimeException ex) {
+            return new Line(lineNumber, LineResult.invalid(lineNumber, "Invalid JSON"));
+        }
+    }
+
+    private void write(List<Line> chunk, boolean ordered, JsonGenerator generator) throws IOException {
+
+        List<Line> valid = new ArrayList<>(chunk.size());
+        List<Product> products = new ArrayList<>(chunk.size());
+        for (Line line : chunk) {
+            if (line.product != null) {
+                valid.add(line);
+                products.add(line.product);
+            }
+        }
+
+        Map<Integer, String> errors = new HashMap<>();
+        int firstError = Integer.MAX_VALUE;
+
+        if (!products.isEmpty()) {
+            try {
+                productRepository.insertAll(products, ordered);
+            } catch (BulkOperationException ex) {
+                for (BulkWriteError error : ex.getErrors()) {
+                    errors.put(error.getIndex(), error.getMessage());
+                    firstError = Math.min(firstError, error.getIndex());
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.error("Could not insert products", ex);
+                for (int i = 0; i < valid.size(); i++)
+                    errors.put(i, "Insert failed");
+                firstError = 0;
+            }
+            // lookups by name may have cached a miss for one of the new products
+            productCache.invalidateNames();
+        }
+
+        List<String> created = new ArrayList<>();
+        Map<String, List<String>> productsByCategory = new HashMap<>();
+        for (int i = 0; i < valid.size(); i++) {
+            Line line = valid.get(i);
+            if (errors.containsKey(i))
+                line.result = LineResult.failed(line.number, errors.get(i));
+            else if (ordered && i > firstError)
+                line.result = LineResult.skipped(line.number);
+            else {
+                line.result = LineResult.created(line.number, line.product.getId());
+                productSearchIndex.index(line.product);
+                created.add(line.product.getId());
+                if (line.category != null)
+                    productsByCategory.computeIfAbsent(line.category, c -> new ArrayList<>()).add(line.product.getId());
+            }
+        }
+
+        changeLog.publish(ChangeLog.Type.PRODUCT, created);
+
+        try {
+            if (categoryRepository.addProductsById(productsByCategory) > 0) {
+                categoryChangeCounter.increment();
+                changeLog.publish(ChangeLog.Type.CATEGORY);
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.error("Could not add products to categories", ex);
+        }
+
+        for (Line line : chunk) {
+            writer.writeValue(generator, line.result);
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+    }
+
+    private static class Line {
+
+        private final long number;
+        private final Product product;
+        private final String category;
+        private LineResult result;
+
+        private Line(long number, Product product, String category) {
+            this.number = number;
+            this.product = product;
+            this.category = category;
+        }
+
+        private Line(long number, LineResult result) {
+            this(number, null, null);
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.sander.store.cache;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts changes of categories, so that clients can revalidate category collections without the
+ * categories being read from the database. Writers increment the counter after a change has been
+ * written, readers take the ETag before they read, so an ETag is never newer than the data it is
+ * sent with. The epoch tells counters of different application starts apart
+ */
+@Component
+public class CategoryChangeCounter {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36) + "."
+            + Integer.toString(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE), 36);
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * Categories have been created, changed or deleted
+     */
+    public void increment() {
+        changes.incrementAndGet();
+    }
+
+    /**
+     * @return strong ETag of the current state of all categories
+     */
+    public String getETag() {
+        return "\"" + epoch + "-" + changes.get() + "\"";
+    }
+}
@@ -0,0 +1,108 @@
+package com.sander.store.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.sander.store.repository.CategoryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * All categories serialized to JSON once, plain and gzip'd, and served as is until the
+ * {@link CategoryChangeCounter} moves on. The counter is read before the categories, so a
+ * cached response is never newer than the counter it is kept for and a write in the meantime
+ * leads to another rebuild. Only one rebuild runs at a time, concurrent readers wait for it
+ */
+@Component
+public class CategoryResponseCache {
+
+    private final CategoryRepository categoryRepository;
+    private final CategoryChangeCounter categoryChangeCounter;
+    private final ObjectWriter writer;
+    private volatile Serialized current;
+
+    @Autowired
+    public CategoryResponseCache(CategoryRepository categoryRepository, CategoryChangeCounter categoryChangeCounter,
+                                 ObjectMapper objectMapper) {
+        this.categoryRepository = categoryRepository;
+        this.categoryChangeCounter = categoryChangeCounter;
+        this.writer = objectMapper.writer();
+    }
+
+    /**
+     * @return all categories serialized for the current ETag
+     */
+    public Serialized get() {
+
+        Serialized serialized = current;
+        if (serialized != null && serialized.eTag.equals(categoryChangeCounter.getETag()))
+            return serialized;
+
+        synchronized (this) {
+            String eTag = categoryChangeCounter.getETag();
+            serialized = current;
+            if (serialized != null && serialized.eTag.equals(eTag))
+                return serialized;
+
+            byte[] identity;
+            try {
+                identity = writer.writeValueAsBytes(categoryRepository.findAll());
+            } catch (JsonProcessingException ex) {
+                throw new IllegalStateException("Could not serialize categories", ex);
+            }
+            current = serialized = new Serialized(eTag, identity, gzip(identity));
+            return serialized;
+        }
+    }
+
+    private static byte[] gzip(byte[] identity) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(identity.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(identity);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Serialized categories, the arrays are shared and must not be modified
+     */
+    public static final class Serialized {
+
+        private final String eTag;
+        private final byte[] identity, gzip;
+
+        private Serialized(String eTag, byte[] identity, byte[] gzip) {
+            this.eTag = eTag;
+            this.identity = identity;
+            this.gzip = gzip;
+        }
+
+        /**
+         * @return ETag of the categories, see {@link CategoryChangeCounter#getETag()}
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return JSON array of all categories
+         */
+        public byte[] getIdentity() {
+            return identity;
+        }
+
+        /**
+         * @return JSON array of all categories, gzip'd
+         */
+        public byte[] getGzip() {
+            return gzip;
+        }
+    }
+}
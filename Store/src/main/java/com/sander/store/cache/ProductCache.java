@@ -0,0 +1,168 @@
+package com.sander.store.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sander.store.pojo.Product;
+import com.sander.store.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded read-through cache in front of {@link ProductRepository} for lookups by id and by name,
+ * misses are cached as well. Entries carry the product version and are only ever replaced by the
+ * same or a newer version, so a slow read can not overwrite a product written in the meantime.
+ * Returned products are copies and can be modified freely
+ */
+@Component
+public class ProductCache {
+
+    private static final long MISSING = -1, DELETED = Long.MAX_VALUE;
+
+    private final ProductRepository productRepository;
+    private final Cache<String, Entry> byId;
+    private final Cache<String, List<Product>> byName;
+    private final AtomicLong nameGeneration = new AtomicLong();
+
+    @Autowired
+    public ProductCache(
+            ProductRepository productRepository,
+            @Value("${store.cache.products.maximum-size:100000}") long maximumSize,
+            @Value("${store.cache.products.expire-after-write:600000}") long expireAfterWrite
+    ) {
+        this.productRepository = productRepository;
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.byName = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param id
+     * @return copy of the product or null if it does not exist
+     */
+    public Product findById(String id) {
+        Entry entry = byId.get(id, key -> Entry.of(productRepository.findOne(key)));
+        return entry.product == null ? null : entry.product.copy();
+    }
+
+    /**
+     * @param name
+     * @return copies of all products with the given name, empty if there are none
+     */
+    public Collection<Product> findByName(String name) {
+
+        List<Product> products = byName.getIfPresent(name);
+
+        if (products == null) {
+            long generation = nameGeneration.get();
+            Collection<Product> found = productRepository.findByName(name);
+            products = found == null ? new ArrayList<>() : new ArrayList<>(found);
+            // do not cache a result which may have been read before a write
+            if (generation == nameGeneration.get())
+                byName.put(name, products);
+        }
+
+        return products.stream().map(Product::copy).collect(Collectors.toList());
+    }
+
+    /**
+     * A product has been created or updated
+     * @param product the stored product
+     */
+    public void put(Product product) {
+        byId.asMap().merge(product.getId(), Entry.of(product.copy()), Entry::newer);
+        invalidateNames();
+    }
+
+    /**
+     * A product has been deleted
+     * @param id
+     */
+    public void delete(String id) {
+        byId.asMap().put(id, new Entry(null, DELETED));
+        invalidateNames();
+    }
+
+    /**
+     * Products have been written without being known to this cache, e.g. created in bulk
+     */
+    public void invalidateNames() {
+        nameGeneration.incrementAndGet();
+        byName.invalidateAll();
+    }
+
+    /**
+     * Drop a single product, e.g. after it has been changed elsewhere
+     * @param id
+     */
+    public void invalidate(String id) {
+        byId.invalidate(id);
+        invalidateNames();
+    }
+
+    /**
+     * Drop everything, e.g. after products have been removed in bulk
+     */
+    public void invalidateAll() {
+        byId.invalidateAll();
+        invalidateNames();
+    }
+
+    /**
+     * @return hit, miss and eviction counters of both caches
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("byId", statistics(byId));
+        statistics.put("byName", statistics(byName));
+        return statistics;
+    }
+
+    private static Map<String, Object> statistics(Cache<?, ?> cache) {
+        com.github.benmanes.caffeine.cache.stats.CacheStats stats = cache.stats();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("size", cache.estimatedSize());
+        statistics.put("hits", stats.hitCount());
+        statistics.put("misses", stats.missCount());
+        statistics.put("evictions", stats.evictionCount());
+        statistics.put("hitRate", stats.hitRate());
+        return statistics;
+    }
+
+    private static class Entry {
+
+        private final Product product;
+        private final long version;
+
+        private Entry(Product product, long version) {
+            this.product = product;
+            this.version = version;
+        }
+
+        private static Entry of(Product product) {
+            if (product == null)
+                return new Entry(null, MISSING);
+            return new Entry(product, product.getVersion() == null ? 0 : product.getVersion());
+        }
+
+        private static Entry newer(Entry current, Entry next) {
+            return next.version >= current.version ? next : current;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.sander.store.changes;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Capped collection of compact change events, appended by every write to products, categories or
+ * currency rates so that other nodes can drop what they keep in memory, see {@link ChangeLogTailer}.
+ * Events only name what changed, never the changed data. Capped collections keep insertion order
+ * and can be tailed on a standalone mongod, no replica set or oplog is needed.
+ *
+ * Publishing never fails a write, an event which could not be appended is logged and the other
+ * nodes catch up once their cache entries expire
+ */
+@Component
+public class ChangeLog {
+
+    static final String COLLECTION = "changeLog", POSITIONS = "changeLogPositions";
+    static final String ID = "_id", NODE = "node", TYPE = "type", KEY = "key", POSITION = "position",
+            UPDATED = "updated";
+
+    /**
+     * What changed, a product event without key stands for a bulk change of all products which
+     * leaves their names alone, e.g. recomputed base prices
+     */
+    public enum Type {
+        PRODUCT, CATEGORY, CURRENCY
+    }
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ChangeLog.class);
+    private final MongoOperations mongoOperations;
+    private final String node;
+    private final boolean enabled;
+    private final int size;
+    private volatile boolean capped;
+
+    @Autowired
+    public ChangeLog(
+            MongoOperations mongoOperations,
+            @Value("${store.changes.node:${HOSTNAME:localhost}-${server.port:8080}}") String node,
+            @Value("${store.changes.enabled:true}") boolean enabled,
+            @Value("${store.changes.size:16777216}") int size
+    ) {
+        this.mongoOperations = mongoOperations;
+        this.node = node;
+        this.enabled = enabled;
+        this.size = size;
+    }
+
+    @PostConstruct
+    public void create() {
+        if (!enabled)
+            return;
+        try {
+            if (!mongoOperations.collectionExists(COLLECTION))
+                mongoOperations.createCollection(COLLECTION, new CollectionOptions(size, null, true));
+        } catch (Exception ex) {
+            // created by another node in the meantime or not supported
+            LOGGER.warn("Could not create capped collection " + COLLECTION + ": " + ex.getMessage());
+        }
+        try {
+            capped = collection().isCapped();
+        } catch (Exception ex) {
+            capped = false;
+        }
+        if (!capped)
+            LOGGER.warn(COLLECTION + " is not capped, changes are polled");
+    }
+
+    /**
+     * @param type
+     */
+    public void publish(Type type) {
+        publish(type, Collections.singletonList(null));
+    }
+
+    /**
+     * @param type
+     * @param key id of the changed document
+     */
+    public void publish(Type type, String key) {
+        publish(type, Collections.singletonList(key));
+    }
+
+    /**
+     * Append one event per key with a single insert
+     * @param type
+     * @param keys ids of the changed documents
+     */
+    public void publish(Type type, Collection<String> keys) {
+
+        if (!enabled || keys.isEmpty())
+            return;
+
+        List<DBObject> events = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            BasicDBObject event = new BasicDBObject(NODE, node).append(TYPE, type.name());
+            if (key != null)
+                event.append(KEY, key);
+            events.add(event);
+        }
+
+        try {
+            collection().insert(events);
+        } catch (Exception ex) {
+            LOGGER.error("Could not publish " + keys.size() + " " + type + " changes", ex);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return name of this node, events of this node have been applied locally already
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @param after position of the last read event, null to start at the beginning
+     * @return cursor over all later events in insertion order, awaiting new events if the
+     * collection is capped
+     */
+    DBCursor tail(ObjectId after) {
+        DBObject query = after == null ? new BasicDBObject() :
+                new BasicDBObject(ID, new BasicDBObject("$gt", after));
+        if (!capped)
+            return collection().find(query).sort(new BasicDBObject(ID, 1));
+        return collection().find(query)
+                .addOption(Bytes.QUERYOPTION_TAILABLE)
+                .addOption(Bytes.QUERYOPTION_AWAITDATA);
+    }
+
+    /**
+     * @return position of the last event, null if there are none
+     */
+    ObjectId last() {
+        return position(-1);
+    }
+
+    /**
+     * @return position of the oldest event still kept, null if there are none
+     */
+    ObjectId first() {
+        return position(1);
+    }
+
+    /**
+     * @return position saved by this node, null if there is none
+     */
+    ObjectId loadPosition() {
+        DBObject saved = mongoOperations.getCollection(POSITIONS).findOne(new BasicDBObject(ID, node));
+        return saved == null ? null : (ObjectId) saved.get(POSITION);
+    }
+
+    void savePosition(ObjectId position) {
+        mongoOperations.getCollection(POSITIONS).update(new BasicDBObject(ID, node),
+                new BasicDBObject("$set", new BasicDBObject(POSITION, position).append(UPDATED, new Date())),
+                true, false);
+    }
+
+    private ObjectId position(int order) {
+        try (DBCursor cursor = collection().find(new BasicDBObject(), new BasicDBObject(ID, 1))
+                .sort(new BasicDBObject("$natural", order)).limit(1)) {
+            return cursor.hasNext() ? (ObjectId) cursor.next().get(ID) : null;
+        }
+    }
+
+    private DBCollection collection() {
+        return mongoOperations.getCollection(COLLECTION);
+    }
+}
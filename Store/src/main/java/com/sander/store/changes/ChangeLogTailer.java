@@ -0,0 +1,242 @@
+package com.sander.store.changes;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.cache.ProductCache;
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.pojo.Product;
+import com.sander.store.repository.ProductRepository;
+import com.sander.store.search.ProductSearchIndex;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.TreeSet;
+
+/**
+ * Follows the {@link ChangeLog} with a tailable cursor and applies the events of other nodes to the
+ * local state: changed products are dropped from the {@link ProductCache} and indexed again, changed
+ * categories bump the {@link CategoryChangeCounter} and changed rates are reloaded.
+ *
+ * Ids are assigned by the publishing nodes, so an event can be appended after events with larger
+ * ids. Whenever the cursor is opened, the log is therefore read again from shortly before the
+ * position of the last applied event, events applied within that overlap are skipped. The position
+ * is saved every second and on shutdown, after a restart the overlap is read again as well,
+ * applying an event twice does no harm. If events have been overwritten in the meantime, all local
+ * state is dropped. Without a capped collection, e.g. if it could not be created, the log is polled
+ * instead
+ */
+@Component
+public class ChangeLogTailer implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final long SAVE_INTERVAL = 1000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ChangeLogTailer.class);
+    private final ChangeLog changeLog;
+    private final ProductRepository productRepository;
+    private final ProductCache productCache;
+    private final ProductSearchIndex productSearchIndex;
+    private final CategoryChangeCounter categoryChangeCounter;
+    private final CurrencyConversionProvider currencyConversionProvider;
+
+    @Value("${store.changes.poll-interval:500}")
+    private long pollInterval = 500;
+
+    @Value("${store.changes.resume-overlap:5000}")
+    private long resumeOverlap = 5000;
+
+    private volatile boolean running;
+    private volatile DBCursor cursor;
+    private Thread thread;
+    private ObjectId position;
+    private final TreeSet<ObjectId> applied = new TreeSet<>();
+    private long saved;
+
+    @Autowired
+    public ChangeLogTailer(ChangeLog changeLog, ProductRepository productRepository, ProductCache productCache,
+                           ProductSearchIndex productSearchIndex, CategoryChangeCounter categoryChangeCounter,
+                           CurrencyConversionProvider currencyConversionProvider) {
+        this.changeLog = changeLog;
+        this.productRepository = productRepository;
+        this.productCache = productCache;
+        this.productSearchIndex = productSearchIndex;
+        this.categoryChangeCounter = categoryChangeCounter;
+        this.currencyConversionProvider = currencyConversionProvider;
+    }
+
+    @Override
+    public synchronized void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!changeLog.isEnabled() || running)
+            return;
+        running = true;
+        thread = new Thread(this::run, "change-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (thread == null)
+            return;
+        thread.interrupt();
+        close(cursor);
+        try {
+            thread.join(SAVE_INTERVAL);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+
+        resume();
+
+        while (running) {
+            try {
+                if (lost())
+                    reset();
+                cursor = changeLog.tail(overlapped(position));
+                while (running && cursor.hasNext()) {
+                    apply(cursor.next());
+                    if (System.currentTimeMillis() - saved > SAVE_INTERVAL)
+                        save();
+                }
+            } catch (Exception ex) {
+                if (running)
+                    LOGGER.warn("Change log cursor closed: " + ex.getMessage());
+            } finally {
+                close(cursor);
+            }
+
+            // the cursor ends if the log is empty, overrun or not capped
+            save();
+            if (running)
+                pause();
+        }
+    }
+
+    private void resume() {
+        try {
+            position = changeLog.loadPosition();
+            if (position == null)
+                // state has just been read from the database, nothing to catch up with
+                position = changeLog.last();
+            else
+                LOGGER.info("Resuming change log after " + position);
+        } catch (Exception ex) {
+            LOGGER.error("Could not resume change log", ex);
+        }
+    }
+
+    /**
+     * @param position
+     * @return smallest possible id of the overlap before the position, to make up for events
+     * inserted out of order by other nodes
+     */
+    private ObjectId overlapped(ObjectId position) {
+        if (position == null)
+            return null;
+        return new ObjectId(new Date(position.getDate().getTime() - resumeOverlap), 0, (short) 0, 0);
+    }
+
+    /**
+     * @return true if events after the current position have been overwritten
+     */
+    private boolean lost() {
+        ObjectId first = changeLog.first();
+        return position != null && first != null && first.compareTo(position) > 0;
+    }
+
+    private void apply(DBObject event) {
+
+        ObjectId id = (ObjectId) event.get(ChangeLog.ID);
+        if (!applied.add(id))
+            return;
+        if (position == null || id.compareTo(position) > 0) {
+            position = id;
+            // older events are not read again
+            applied.headSet(overlapped(position)).clear();
+        }
+        if (changeLog.getNode().equals(event.get(ChangeLog.NODE)))
+            return;
+
+        String key = (String) event.get(ChangeLog.KEY);
+        ChangeLog.Type type;
+        try {
+            type = ChangeLog.Type.valueOf((String) event.get(ChangeLog.TYPE));
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            LOGGER.warn("Ignoring unknown change " + event);
+            return;
+        }
+
+        switch (type) {
+            case PRODUCT:
+                // bulk changes, e.g. recomputed prices, keep the names
+                if (key == null) {
+                    productCache.invalidateAll();
+                    break;
+                }
+                productCache.invalidate(key);
+                Product product = productRepository.findOne(key);
+                if (product == null)
+                    productSearchIndex.remove(key);
+                else
+                    productSearchIndex.index(product);
+                break;
+            case CATEGORY:
+                categoryChangeCounter.increment();
+                break;
+            case CURRENCY:
+                currencyConversionProvider.reloadRates();
+                break;
+        }
+    }
+
+    private void reset() {
+        LOGGER.warn("Missed changes after " + position + ", dropping local state");
+        productCache.invalidateAll();
+        productSearchIndex.build();
+        categoryChangeCounter.increment();
+        currencyConversionProvider.reloadRates();
+        position = changeLog.last();
+        applied.clear();
+    }
+
+    private void save() {
+        if (position == null)
+            return;
+        try {
+            changeLog.savePosition(position);
+            saved = System.currentTimeMillis();
+        } catch (Exception ex) {
+            LOGGER.error("Could not save change log position", ex);
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(pollInterval);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static void close(DBCursor cursor) {
+        if (cursor == null)
+            return;
+        try {
+            cursor.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
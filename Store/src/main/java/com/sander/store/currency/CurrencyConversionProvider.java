@@ -3,59 +3,95 @@ package com.sander.store.currency;
 import com.sander.store.exceptions.CurrencyISONotFoundException;
 import com.sander.store.pojo.Product;
 import com.sander.store.repository.CurrencyRepository;
-import org.apache.commons.io.IOUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.boot.json.JacksonJsonParser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.net.URL;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Class loads currency information from http://api.fixer.io/latest and saves it
- * to {@link CurrencyRepository}, also does currency conversion
+ * Class loads currency information from a {@link CurrencyRateSource} and saves it
+ * as versioned {@link CurrencyRateSet} to {@link CurrencyRepository}, also does currency conversion.
+ *
+ * Conversions are served from an immutable {@link CurrencyRateSnapshot} which is replaced
+ * atomically whenever the rates change, so the repository is never queried per conversion.
+ * Conversions and updates are timed as store.currency.conversions and store.currency.updates
  */
+@Component
 public class CurrencyConversionProvider {
 
     public static String CURRENCY_ISO = "currencyIso", VALUE = "value", EUR = "EUR";
 
     private final Logger LOGGER = LoggerFactory.getLogger(CurrencyConversionProvider.class);
-    private final String CURRENCIES_REQUEST = "http://api.fixer.io/latest";
-    private final JacksonJsonParser parser = new JacksonJsonParser();
     private final CurrencyRepository currencyRepository;
+    private final CurrencyRateSource currencyRateSource;
+    private final MeterRegistry meterRegistry;
+    private final Timer conversions;
+    private final AtomicReference<CurrencyRateSnapshot> snapshot = new AtomicReference<>(CurrencyRateSnapshot.EMPTY);
 
-    public CurrencyConversionProvider(CurrencyRepository currencyRepository) {
+    @Value("${store.currency.retained-versions:3}")
+    private int retainedVersions = 3;
+
+    public CurrencyConversionProvider(CurrencyRepository currencyRepository, CurrencyRateSource currencyRateSource) {
+        this(currencyRepository, currencyRateSource, Metrics.globalRegistry);
+    }
+
+    @Autowired
+    public CurrencyConversionProvider(CurrencyRepository currencyRepository, CurrencyRateSource currencyRateSource,
+                                      MeterRegistry meterRegistry) {
         this.currencyRepository = currencyRepository;
+        this.currencyRateSource = currencyRateSource;
+        this.meterRegistry = meterRegistry;
+        this.conversions = meterRegistry.timer("store.currency.conversions");
     }
 
+    /**
+     * Fetch the latest rates from {@link CurrencyRateSource} and store them as a new rate set,
+     * the previous set stays in place until the new one has been written completely
+     *
+     * @return true if new rates are available
+     */
     public boolean updateCurrencies() {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean updated = fetchCurrencies();
+        sample.stop(meterRegistry.timer("store.currency.updates", "updated", String.valueOf(updated)));
+        return updated;
+    }
 
-        String json = null;
-        URL url = null;
+    private boolean fetchCurrencies() {
+
+        Map<String, Double> rates = null;
 
         try {
-            url = new URL(CURRENCIES_REQUEST);
-            json = IOUtils.toString(url, "UTF-8");
+            rates = currencyRateSource.fetchRates();
         } catch (IOException ex) {
-            LOGGER.error("Could not access " + url, ex);
+            LOGGER.error("Could not access " + currencyRateSource, ex);
         }
 
-        if (json == null) {
-            if (currencyRepository.findAll().isEmpty())
+        if (rates == null) {
+            if (getSnapshot().isEmpty() && reloadRates().isEmpty())
                 LOGGER.warn("CurrencyRate conversion cannot be applied");
             return false;
         }
 
         try {
-            currencyRepository.deleteAll();
-            Map<String, Object> data = parser.parseMap(json);
-            Map<String, Object> rates = (Map<String, Object>) data.get("rates");
-            currencyRepository.save(
-                    rates.entrySet().stream().map(
-                            e -> new CurrencyRate(e.getKey(), (double)e.getValue())
-                    ).collect(Collectors.toList()));
+            CurrencyRateSet latest = currencyRepository.findTopByOrderByVersionDesc();
+            CurrencyRateSet rateSet = new CurrencyRateSet(latest == null ? 1L : latest.getVersion() + 1, rates);
+            currencyRepository.insert(rateSet);
+            replaceSnapshot(rateSet);
+            currencyRepository.deleteByVersionLessThan(rateSet.getVersion() - retainedVersions + 1);
+        } catch (DuplicateKeyException ex) {
+            // another instance stored a set with the same version in the meantime, use that one
+            LOGGER.info("Currency rates have been updated concurrently, reloading");
+            reloadRates();
         } catch (Exception ex) {
             LOGGER.error("Could not update currencies", ex);
             return false;
@@ -64,20 +100,33 @@ public class CurrencyConversionProvider {
         return true;
     }
 
+    /**
+     * Rebuild the rate snapshot from the latest rate set stored inside {@link CurrencyRepository}
+     *
+     * @return the new snapshot
+     */
+    public CurrencyRateSnapshot reloadRates() {
+        CurrencyRateSet latest = currencyRepository.findTopByOrderByVersionDesc();
+        if (latest == null) {
+            snapshot.set(CurrencyRateSnapshot.EMPTY);
+            return CurrencyRateSnapshot.EMPTY;
+        }
+        return replaceSnapshot(latest);
+    }
+
+    /**
+     * @return the snapshot all conversions are currently served from
+     */
+    public CurrencyRateSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
     public double convertFromEuroTo(double value, String to) throws CurrencyISONotFoundException {
-        if(to.equalsIgnoreCase("EUR"))
-            return value;
-        CurrencyRate currencyRate = currencyRepository.findOne(to);
-        if(currencyRate == null)
-            throw new CurrencyISONotFoundException("CurrencyRate ISO not available.");
-        return value * currencyRate.getRate();
+        return getSnapshot().convertFromEuroTo(value, to);
     }
 
     public double convertToEuro(double value, String from) throws CurrencyISONotFoundException {
-        CurrencyRate currencyRate = currencyRepository.findOne(from);
-        if(currencyRate == null)
-            throw new CurrencyISONotFoundException("CurrencyRate ISO not available.");
-        return value / currencyRate.getRate();
+        return getSnapshot().convertToEuro(value, from);
     }
 
     /**
@@ -86,36 +135,39 @@ public class CurrencyConversionProvider {
      * @param currencyIso
      * @param product
      */
-    public void adaptCurrency(String currencyIso, Product product)  {
+    public void adaptCurrency(String currencyIso, Product product) {
+        adaptCurrency(currencyIso, product, getSnapshot());
+    }
+
+    /**
+     * Adapt currency on a given {@link Product} using the rates of a distinct snapshot, so that
+     * several products can be converted consistently with {@link CurrencyRateSnapshot#getVersion()}
+     *
+     * @param currencyIso
+     * @param product
+     * @param rates
+     */
+    public void adaptCurrency(String currencyIso, Product product, CurrencyRateSnapshot rates) {
+        conversions.record(() -> convert(currencyIso, product, rates));
+    }
+
+    private void convert(String currencyIso, Product product, CurrencyRateSnapshot rates) {
+
+        if (currencyIso.equalsIgnoreCase(product.getCurrencyIso()))
+            return;
 
         try {
-            if (currencyIso.equalsIgnoreCase(product.getCurrencyIso())) {
-                return;
-            }
-
-            if (currencyIso.equalsIgnoreCase(EUR) && !product.getCurrencyIso().equalsIgnoreCase(EUR)) {
-                double newValue = convertToEuro(product.getValue(), product.getCurrencyIso());
-                product.setValue(newValue);
-                product.setCurrencyIso(currencyIso);
-                return;
-            }
-
-            if (!currencyIso.equalsIgnoreCase(EUR) && product.getCurrencyIso().equalsIgnoreCase(EUR)) {
-                double newValue = convertFromEuroTo(product.getValue(), currencyIso);
-                product.setValue(newValue);
-                product.setCurrencyIso(currencyIso);
-                return;
-            }
-
-            if (!currencyIso.equalsIgnoreCase(EUR) && !product.getCurrencyIso().equalsIgnoreCase(EUR)) {
-                double newValue = convertFromEuroTo(convertToEuro(product.getValue(), product.getCurrencyIso()), currencyIso);
-                product.setValue(newValue);
-                product.setCurrencyIso(currencyIso);
-                return;
-            }
+            long amount = rates.convert(product.getAmount(), product.getCurrencyIso(), currencyIso);
+            product.setPrice(amount, rates.getScale(currencyIso), currencyIso);
         } catch (Exception ex) {
             LOGGER.error("Could not convert product currency into " + currencyIso, ex);
-            return;
         }
-     }
+    }
+
+    private CurrencyRateSnapshot replaceSnapshot(CurrencyRateSet rateSet) {
+        CurrencyRateSnapshot next = new CurrencyRateSnapshot(rateSet.getVersion(), rateSet.getRates());
+        snapshot.set(next);
+        LOGGER.info("Serving currency conversions from " + next);
+        return next;
+    }
 }
@@ -0,0 +1,46 @@
+package com.sander.store.currency;
+
+import org.springframework.data.annotation.Id;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Describes all currency rates (compared to EURO) fetched at once, identified by a
+ * distinct version. A set is written as a single document, so replacing the current
+ * set with a newer one is atomic
+ */
+public class CurrencyRateSet {
+
+    @Id
+    private Long version;
+    private Map<String, Double> rates;
+    private Date created;
+
+    public CurrencyRateSet(Long version, Map<String, Double> rates) {
+        this.version = version;
+        this.rates = rates;
+        this.created = new Date();
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public Map<String, Double> getRates() {
+        return rates;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "CurrencyRateSet{" +
+                "version=" + version +
+                ", rates=" + rates +
+                ", created=" + created +
+                '}';
+    }
+}
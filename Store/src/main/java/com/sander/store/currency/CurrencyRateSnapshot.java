@@ -0,0 +1,183 @@
+package com.sander.store.currency;
+
+import com.sander.store.exceptions.CurrencyISONotFoundException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of all currency rates (compared to EURO) known at a distinct version,
+ * used by {@link CurrencyConversionProvider} so that conversions never hit the database.
+ *
+ * Prices in minor units are converted with exact cross rates between every pair of currencies,
+ * computed once per snapshot including the scales of both currencies. Rates are taken as decimals
+ * with up to {@value RATE_DIGITS} significant digits and every cross rate is kept as reduced fraction
+ * of two longs, so a conversion is an integer multiply and divide rounded half even to whole minor
+ * units, without floating point, intermediate results in euro or allocations
+ */
+public final class CurrencyRateSnapshot {
+
+    public static final CurrencyRateSnapshot EMPTY = new CurrencyRateSnapshot(0, Collections.emptyMap());
+
+    static final int RATE_DIGITS = 9;
+
+    private final long version;
+    private final Map<String, Double> rates;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final int[] scales;
+    private final long[][] numerators, denominators;
+
+    public CurrencyRateSnapshot(long version, Map<String, Double> rates) {
+        this.version = version;
+        this.rates = Collections.unmodifiableMap(new HashMap<>(rates));
+
+        List<String> currencies = new ArrayList<>(rates.keySet());
+        currencies.remove(CurrencyConversionProvider.EUR);
+        currencies.add(0, CurrencyConversionProvider.EUR);
+
+        BigDecimal[] perEuro = new BigDecimal[currencies.size()];
+        scales = new int[currencies.size()];
+        for (int i = 0; i < currencies.size(); i++) {
+            String currency = currencies.get(i);
+            indexes.put(currency, i);
+            perEuro[i] = i == 0 ? BigDecimal.ONE : decimal(currency, rates.get(currency));
+            scales[i] = Money.scale(currency);
+        }
+
+        numerators = new long[currencies.size()][currencies.size()];
+        denominators = new long[currencies.size()][currencies.size()];
+        for (int from = 0; from < currencies.size(); from++) {
+            for (int to = 0; to < currencies.size(); to++) {
+                // perEuro[to] / perEuro[from] * 10^(scales[to] - scales[from])
+                BigInteger numerator = perEuro[to].unscaledValue(), denominator = perEuro[from].unscaledValue();
+                int exponent = perEuro[from].scale() - perEuro[to].scale() + scales[to] - scales[from];
+                if (exponent >= 0)
+                    numerator = numerator.multiply(BigInteger.TEN.pow(exponent));
+                else
+                    denominator = denominator.multiply(BigInteger.TEN.pow(-exponent));
+                BigInteger gcd = numerator.gcd(denominator);
+                numerator = numerator.divide(gcd);
+                denominator = denominator.divide(gcd);
+                if (numerator.bitLength() > 62 || denominator.bitLength() > 62)
+                    throw new IllegalArgumentException("Cross rate of " + currencies.get(from) + " and "
+                            + currencies.get(to) + " out of range");
+                numerators[from][to] = numerator.longValue();
+                denominators[from][to] = denominator.longValue();
+            }
+        }
+    }
+
+    /**
+     * @param currency
+     * @param rate
+     * @return shortest decimal representation of the rate with at most {@value RATE_DIGITS} significant digits
+     * @throws IllegalArgumentException if the rate is not positive
+     */
+    private static BigDecimal decimal(String currency, Double rate) {
+        if (rate == null || !(rate > 0) || Double.isInfinite(rate))
+            throw new IllegalArgumentException("Invalid rate of " + currency + ": " + rate);
+        return BigDecimal.valueOf(rate).round(new MathContext(RATE_DIGITS, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Double> getRates() {
+        return rates;
+    }
+
+    public boolean isEmpty() {
+        return rates.isEmpty();
+    }
+
+    public boolean contains(String currencyIso) {
+        return CurrencyConversionProvider.EUR.equalsIgnoreCase(currencyIso) || rates.containsKey(currencyIso);
+    }
+
+    public double getRate(String currencyIso) throws CurrencyISONotFoundException {
+        Double rate = rates.get(currencyIso);
+        if(rate == null)
+            throw new CurrencyISONotFoundException("CurrencyRate ISO not available.");
+        return rate;
+    }
+
+    /**
+     * @param currencyIso
+     * @return number of fraction digits prices in this currency are kept with
+     * @throws CurrencyISONotFoundException
+     */
+    public int getScale(String currencyIso) throws CurrencyISONotFoundException {
+        return scales[index(currencyIso)];
+    }
+
+    /**
+     * Convert a price in minor units exactly, rounded half even, converting into the same currency
+     * returns the amount unchanged
+     *
+     * @param amount minor units of from
+     * @param from
+     * @param to
+     * @return minor units of to
+     * @throws CurrencyISONotFoundException
+     * @throws ArithmeticException if the converted amount does not fit into a long
+     */
+    public long convert(long amount, String from, String to) throws CurrencyISONotFoundException {
+        int f = index(from), t = index(to);
+        long numerator = numerators[f][t], denominator = denominators[f][t];
+
+        long product;
+        try {
+            product = Math.multiplyExact(amount, numerator);
+        } catch (ArithmeticException ex) {
+            // exact, only for amounts far beyond any price
+            return new BigDecimal(BigInteger.valueOf(amount).multiply(BigInteger.valueOf(numerator)))
+                    .divide(BigDecimal.valueOf(denominator), 0, RoundingMode.HALF_EVEN)
+                    .longValueExact();
+        }
+
+        long quotient = product / denominator, remainder = Math.abs(product % denominator);
+        // remainder < denominator < 2^62, so twice the remainder does not overflow
+        long twice = remainder * 2;
+        if (twice > denominator || (twice == denominator && (quotient & 1) != 0))
+            quotient += Long.signum(product);
+        return quotient;
+    }
+
+    private int index(String currencyIso) throws CurrencyISONotFoundException {
+        Integer index = indexes.get(currencyIso);
+        if(index == null) {
+            if(CurrencyConversionProvider.EUR.equalsIgnoreCase(currencyIso))
+                return 0;
+            throw new CurrencyISONotFoundException("CurrencyRate ISO not available.");
+        }
+        return index;
+    }
+
+    public double convertFromEuroTo(double value, String to) throws CurrencyISONotFoundException {
+        if(to.equalsIgnoreCase(CurrencyConversionProvider.EUR))
+            return value;
+        return value * getRate(to);
+    }
+
+    public double convertToEuro(double value, String from) throws CurrencyISONotFoundException {
+        if(from.equalsIgnoreCase(CurrencyConversionProvider.EUR))
+            return value;
+        return value / getRate(from);
+    }
+
+    @Override
+    public String toString() {
+        return "CurrencyRateSnapshot{" +
+                "version=" + version +
+                ", rates=" + rates.size() +
+                '}';
+    }
+}
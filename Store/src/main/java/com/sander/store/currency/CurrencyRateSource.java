@@ -0,0 +1,16 @@
+package com.sander.store.currency;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Source of currency rates compared to EURO, e.g. a remote service or a local file
+ */
+public interface CurrencyRateSource {
+
+    /**
+     * @return rates by currency iso
+     * @throws IOException if the source is not available
+     */
+    Map<String, Double> fetchRates() throws IOException;
+}
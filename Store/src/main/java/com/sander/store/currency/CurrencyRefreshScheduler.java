@@ -0,0 +1,140 @@
+package com.sander.store.currency;
+
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes currency rates in the background, so that neither application startup nor
+ * any request waits for the {@link CurrencyRateSource}. After a failed refresh the next
+ * attempt is delayed by an exponential, jittered backoff. After a successful refresh the
+ * base prices of the products are recomputed with the new rates, both are announced to the
+ * other nodes in the {@link ChangeLog}. Refreshes including the recomputation are timed as
+ * store.currency.refreshes
+ */
+@Component
+public class CurrencyRefreshScheduler {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CurrencyRefreshScheduler.class);
+    private final CurrencyConversionProvider currencyConversionProvider;
+    private final ProductRepository productRepository;
+    private final MeterRegistry meterRegistry;
+    private final ChangeLog changeLog;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "currency-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${store.currency.refresh-enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${store.currency.refresh-interval:3600000}")
+    private long interval = 3600000;
+
+    @Value("${store.currency.refresh-backoff-initial:5000}")
+    private long initialBackoff = 5000;
+
+    @Value("${store.currency.refresh-backoff-max:600000}")
+    private long maxBackoff = 600000;
+
+    private int failures;
+
+    @Autowired
+    public CurrencyRefreshScheduler(CurrencyConversionProvider currencyConversionProvider, ProductRepository productRepository,
+                                    MeterRegistry meterRegistry, ChangeLog changeLog) {
+        this.currencyConversionProvider = currencyConversionProvider;
+        this.productRepository = productRepository;
+        this.meterRegistry = meterRegistry;
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Load the stored rates in the background, without refreshes the rates of the last refresh of
+     * any node are served until another one is announced in the {@link ChangeLog}
+     */
+    @PostConstruct
+    public void start() {
+        executor.execute(this::load);
+        if (enabled)
+            executor.execute(this::refresh);
+        else
+            LOGGER.info("Scheduled currency refresh is disabled");
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void load() {
+        try {
+            if (currencyConversionProvider.getSnapshot().isEmpty())
+                currencyConversionProvider.reloadRates();
+        } catch (Exception ex) {
+            LOGGER.error("Could not load stored currency rates", ex);
+        }
+    }
+
+    private void refresh() {
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean updated = false;
+
+        try {
+            // serve the last stored rates until the source has answered
+            if (currencyConversionProvider.getSnapshot().isEmpty())
+                currencyConversionProvider.reloadRates();
+            updated = currencyConversionProvider.updateCurrencies();
+        } catch (Exception ex) {
+            LOGGER.error("Could not refresh currencies", ex);
+        }
+
+        if (updated) {
+            changeLog.publish(ChangeLog.Type.CURRENCY);
+            updateBasePrices();
+        }
+        sample.stop(meterRegistry.timer("store.currency.refreshes", "updated", String.valueOf(updated)));
+
+        failures = updated ? 0 : failures + 1;
+        long delay = updated ? interval : backoff(failures);
+
+        if (!executor.isShutdown()) {
+            LOGGER.debug("Next currency refresh in " + delay + " ms");
+            executor.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void updateBasePrices() {
+        try {
+            long products = productRepository.updateBasePrices(currencyConversionProvider.getSnapshot());
+            LOGGER.info("Updated base prices of " + products + " products");
+            if (products > 0)
+                changeLog.publish(ChangeLog.Type.PRODUCT);
+        } catch (Exception ex) {
+            LOGGER.error("Could not update base prices", ex);
+        }
+    }
+
+    /**
+     * Exponential backoff capped at the max backoff, half of it randomized so that
+     * several instances do not hit the source at the same time
+     */
+    long backoff(int failures) {
+        long delay = Math.min(maxBackoff, initialBackoff << Math.min(failures - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+}
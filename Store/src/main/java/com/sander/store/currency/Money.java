@@ -0,0 +1,55 @@
+package com.sander.store.currency;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Prices are kept as long counts of minor units of their currency (e.g. cents) together with the
+ * scale of the currency, the number of its fraction digits. Decimal values are only converted from
+ * and to minor units where prices enter or leave the application
+ */
+public final class Money {
+
+    /**
+     * Scale of currencies unknown to the JDK, e.g. cryptocurrencies
+     */
+    public static final int DEFAULT_SCALE = 2;
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+    private Money() {
+    }
+
+    /**
+     * @param currencyIso
+     * @return number of fraction digits of the currency
+     */
+    public static int scale(String currencyIso) {
+        try {
+            int digits = Currency.getInstance(currencyIso).getDefaultFractionDigits();
+            return digits < 0 ? DEFAULT_SCALE : digits;
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            return DEFAULT_SCALE;
+        }
+    }
+
+    /**
+     * @param value decimal value, more fraction digits than the scale are rounded half even
+     * @param scale
+     * @return count of minor units
+     * @throws ArithmeticException if the value does not fit
+     */
+    public static long toMinorUnits(double value, int scale) {
+        return BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @param amount count of minor units
+     * @param scale
+     * @return closest decimal value, e.g. for JSON
+     */
+    public static double toValue(long amount, int scale) {
+        return amount / POWERS_OF_TEN[scale];
+    }
+}
@@ -0,0 +1,67 @@
+package com.sander.store.currency;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.json.JacksonJsonParser;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads currency rates in the format of http://api.fixer.io/latest from any resource location,
+ * e.g. a http url (remote service or local stub server), a file: url or a classpath: resource
+ */
+@Component
+public class ResourceCurrencyRateSource implements CurrencyRateSource {
+
+    private static final String RATES = "rates";
+
+    private final JacksonJsonParser parser = new JacksonJsonParser();
+    private final Resource resource;
+
+    @Autowired
+    public ResourceCurrencyRateSource(
+            ResourceLoader resourceLoader,
+            @Value("${store.currency.source:http://api.fixer.io/latest}") String location
+    ) {
+        this(resourceLoader.getResource(location));
+    }
+
+    public ResourceCurrencyRateSource(Resource resource) {
+        this.resource = resource;
+    }
+
+    @Override
+    public Map<String, Double> fetchRates() throws IOException {
+
+        String json;
+        try (InputStream in = resource.getInputStream()) {
+            json = IOUtils.toString(in, "UTF-8");
+        }
+
+        Map<String, Object> rates;
+        try {
+            rates = (Map<String, Object>) parser.parseMap(json).get(RATES);
+        } catch (Exception ex) {
+            throw new IOException("Could not parse currency rates of " + resource, ex);
+        }
+
+        if (rates == null)
+            throw new IOException("No currency rates available at " + resource);
+
+        Map<String, Double> result = new HashMap<>();
+        rates.forEach((iso, rate) -> result.put(iso, ((Number) rate).doubleValue()));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return resource.getDescription();
+    }
+}
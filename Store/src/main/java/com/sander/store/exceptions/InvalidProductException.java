@@ -0,0 +1,7 @@
+package com.sander.store.exceptions;
+
+public class InvalidProductException extends Exception {
+    public InvalidProductException(String field) {
+        super("Missing or invalid field " + field);
+    }
+}
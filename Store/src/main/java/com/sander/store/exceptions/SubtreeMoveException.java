@@ -0,0 +1,18 @@
+package com.sander.store.exceptions;
+
+public class SubtreeMoveException extends Exception {
+
+    private final long descendants;
+
+    public SubtreeMoveException(String categoryPath, long descendants, Throwable cause) {
+        super("Could not move subtree of " + categoryPath + " after " + descendants + " subcategories", cause);
+        this.descendants = descendants;
+    }
+
+    /**
+     * @return number of subcategories which have been moved before the failure
+     */
+    public long getDescendants() {
+        return descendants;
+    }
+}
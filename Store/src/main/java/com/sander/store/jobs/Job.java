@@ -0,0 +1,79 @@
+package com.sander.store.jobs;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Describes a long running operation executed by {@link JobService}, its result is
+ * the number of affected documents
+ */
+public class Job {
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String description;
+    private final Date created = new Date();
+    private volatile State state = State.QUEUED;
+    private volatile Long result;
+    private volatile String error;
+    private volatile Date finished;
+
+    public Job(String description) {
+        this.description = description;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Long getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Date getFinished() {
+        return finished;
+    }
+
+    void running() {
+        state = State.RUNNING;
+    }
+
+    void done(long result) {
+        this.result = result;
+        this.finished = new Date();
+        this.state = State.DONE;
+    }
+
+    void failed(Exception ex) {
+        this.error = ex.getMessage();
+        this.finished = new Date();
+        this.state = State.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return "Job{" +
+                "id='" + id + '\'' +
+                ", description='" + description + '\'' +
+                ", state=" + state +
+                ", result=" + result +
+                '}';
+    }
+}
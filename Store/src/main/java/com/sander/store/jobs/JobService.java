@@ -0,0 +1,83 @@
+package com.sander.store.jobs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Executes long running operations in the background, one at a time, and keeps the
+ * most recent jobs so that their state can be polled
+ */
+@Component
+public class JobService {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(JobService.class);
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Job> jobs;
+
+    @Autowired
+    public JobService(
+            @Value("${store.jobs.queue-size:100}") int queueSize,
+            @Value("${store.jobs.retained:1000}") int retained
+    ) {
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "store-jobs");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.jobs = Collections.synchronizedMap(new LinkedHashMap<String, Job>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+                return size() > retained;
+            }
+        });
+    }
+
+    /**
+     * @param description
+     * @param task returns the number of affected documents
+     * @return the queued job
+     * @throws RejectedExecutionException if too many jobs are queued
+     */
+    public Job submit(String description, Supplier<Long> task) {
+        Job job = new Job(description);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> {
+                job.running();
+                try {
+                    job.done(task.get());
+                } catch (Exception ex) {
+                    LOGGER.error("Job failed: " + job, ex);
+                    job.failed(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            jobs.remove(job.getId());
+            throw ex;
+        }
+        return job;
+    }
+
+    public Job find(String id) {
+        return jobs.get(id);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,130 @@
+package com.sander.store.jobs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executors for asynchronous request handling, one for reads and one for writes, so
+ * that slow writes can not starve reads and neither holds a servlet thread while waiting for
+ * the database. A request is answered with 503 if its executor is saturated or if it has not
+ * been handled within the timeout, requests which timed out while queued are skipped. A timed
+ * out read is interrupted, a write which has already started is left to finish, so that it does
+ * not leave e.g. a product without its category memberships
+ */
+@Component
+public class RequestExecutors {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RequestExecutors.class);
+    private final ThreadPoolExecutor reads, writes;
+    private final long timeout;
+    private final Executor lookups = this::lookup;
+
+    @Autowired
+    public RequestExecutors(
+            @Value("${store.async.read-threads:16}") int readThreads,
+            @Value("${store.async.read-queue-size:200}") int readQueueSize,
+            @Value("${store.async.write-threads:8}") int writeThreads,
+            @Value("${store.async.write-queue-size:100}") int writeQueueSize,
+            @Value("${store.async.timeout:10000}") long timeout
+    ) {
+        this.reads = executor("store-reads", readThreads, readQueueSize);
+        this.writes = executor("store-writes", writeThreads, writeQueueSize);
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param handler reading handler
+     * @return result completed by the read executor
+     */
+    public DeferredResult<ResponseEntity<?>> read(Supplier<? extends ResponseEntity<?>> handler) {
+        return submit(reads, handler, true);
+    }
+
+    /**
+     * @param handler writing handler
+     * @return result completed by the write executor
+     */
+    public DeferredResult<ResponseEntity<?>> write(Supplier<? extends ResponseEntity<?>> handler) {
+        return submit(writes, handler, false);
+    }
+
+    /**
+     * Executor for independent lookups a handler waits for. Tasks on the read executor never wait
+     * for other tasks, so a handler can wait for them without risking a deadlock. Lookups rejected by
+     * a saturated read executor run on the calling thread, so that a write does not fail because of
+     * read load
+     * @return
+     */
+    public Executor lookups() {
+        return lookups;
+    }
+
+    private void lookup(Runnable task) {
+        try {
+            reads.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.run();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        reads.shutdownNow();
+        writes.shutdownNow();
+    }
+
+    private DeferredResult<ResponseEntity<?>> submit(ThreadPoolExecutor executor, Supplier<? extends ResponseEntity<?>> handler,
+                                                     boolean interruptible) {
+
+        DeferredResult<ResponseEntity<?>> result =
+                new DeferredResult<>(timeout, new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE));
+
+        try {
+            Future<?> future = executor.submit(() -> {
+                if (result.isSetOrExpired())
+                    return;
+                try {
+                    result.setResult(handler.get());
+                } catch (Exception ex) {
+                    result.setErrorResult(ex);
+                }
+            });
+            result.onTimeout(() -> {
+                // a queued request frees its place, a running one is only interrupted if it reads
+                future.cancel(interruptible);
+                executor.remove((Runnable) future);
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.warn("Rejected request, " + executor.getQueue().size() + " requests queued");
+            result.setResult(new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE));
+        }
+
+        return result;
+    }
+
+    private static ThreadPoolExecutor executor(String name, int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
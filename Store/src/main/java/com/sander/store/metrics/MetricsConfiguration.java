@@ -0,0 +1,37 @@
+package com.sander.store.metrics;
+
+import com.mongodb.MongoClientOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Hooks the Mongo command metrics into the client created by Spring Boot and the per request
+ * statistics into Spring MVC. Request latencies are recorded by Micrometer itself, everything is
+ * exposed at the actuator endpoints /metrics and /prometheus
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public MetricsConfiguration(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean
+    public MongoClientOptions mongoClientOptions(MongoCommandMetrics mongoCommandMetrics) {
+        return MongoClientOptions.builder()
+                .addCommandListener(mongoCommandMetrics)
+                .build();
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RequestMetricsInterceptor(meterRegistry));
+    }
+}
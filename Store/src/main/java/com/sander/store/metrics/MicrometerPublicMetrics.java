@@ -0,0 +1,78 @@
+package com.sander.store.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes the Micrometer meters at the actuator endpoint /metrics next to the metrics of Spring
+ * Boot itself. Timers are published in milliseconds together with their percentiles, e.g.
+ * http.server.requests{exception=None,method=GET,status=200,uri=/products}.p99
+ */
+@Component
+public class MicrometerPublicMetrics implements PublicMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public MicrometerPublicMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        for (Meter meter : meterRegistry.getMeters()) {
+
+            if (meter.getId().isSynthetic())
+                continue;
+
+            String name = name(meter.getId());
+
+            if (meter instanceof Timer)
+                add(metrics, name, ((Timer) meter).takeSnapshot(), TimeUnit.MILLISECONDS);
+            else if (meter instanceof DistributionSummary)
+                add(metrics, name, ((DistributionSummary) meter).takeSnapshot(), null);
+            else
+                for (Measurement measurement : meter.measure())
+                    metrics.add(new Metric<>(name + "." + measurement.getStatistic().name().toLowerCase(Locale.ROOT),
+                            measurement.getValue()));
+        }
+
+        return metrics;
+    }
+
+    private static void add(List<Metric<?>> metrics, String name, HistogramSnapshot snapshot, TimeUnit unit) {
+        metrics.add(new Metric<>(name + ".count", snapshot.count()));
+        metrics.add(new Metric<>(name + ".total", unit == null ? snapshot.total() : snapshot.total(unit)));
+        metrics.add(new Metric<>(name + ".max", unit == null ? snapshot.max() : snapshot.max(unit)));
+        for (ValueAtPercentile percentile : snapshot.percentileValues())
+            metrics.add(new Metric<>(name + ".p" + Math.round(percentile.percentile() * 100),
+                    unit == null ? percentile.value() : percentile.value(unit)));
+    }
+
+    private static String name(Meter.Id id) {
+        if (id.getTags().isEmpty())
+            return id.getName();
+        return id.getTags().stream()
+                .map(tag -> tag.getKey() + "=" + tag.getValue())
+                .collect(Collectors.joining(",", id.getName() + "{", "}"));
+    }
+}
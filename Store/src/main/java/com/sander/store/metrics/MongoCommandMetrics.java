@@ -0,0 +1,98 @@
+package com.sander.store.metrics;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every command sent to Mongo and counts the documents it read and wrote, by command name.
+ * The counts are also added to the statistics of the current request, see {@link RequestMongoStatistics}
+ */
+@Component
+public class MongoCommandMetrics implements CommandListener {
+
+    static final String COMMANDS = "mongo.commands", DOCUMENTS = "mongo.documents";
+
+    private static final String COMMAND = "command", OUTCOME = "outcome", OPERATION = "operation",
+            READ = "read", WRITTEN = "written";
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public MongoCommandMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+
+        String command = event.getCommandName();
+        long read = documentsRead(command, event.getResponse());
+        long written = documentsWritten(command, event.getResponse());
+
+        meterRegistry.timer(COMMANDS, COMMAND, command, OUTCOME, "success")
+                .record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        if (read > 0)
+            meterRegistry.counter(DOCUMENTS, COMMAND, command, OPERATION, READ).increment(read);
+        if (written > 0)
+            meterRegistry.counter(DOCUMENTS, COMMAND, command, OPERATION, WRITTEN).increment(written);
+
+        RequestMongoStatistics.record(read, written);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        meterRegistry.timer(COMMANDS, COMMAND, event.getCommandName(), OUTCOME, "failure")
+                .record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        RequestMongoStatistics.record(0, 0);
+    }
+
+    private static long documentsRead(String command, BsonDocument reply) {
+        switch (command) {
+            case "find":
+            case "aggregate":
+                return batchSize(reply, "firstBatch");
+            case "getMore":
+                return batchSize(reply, "nextBatch");
+            case "findAndModify":
+                return reply.isDocument("value") ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static long documentsWritten(String command, BsonDocument reply) {
+        switch (command) {
+            case "insert":
+            case "delete":
+                return count(reply, "n");
+            case "update":
+                return reply.isNumber("nModified") ? count(reply, "nModified") : count(reply, "n");
+            case "findAndModify":
+                return reply.isDocument("lastErrorObject") ? count(reply.getDocument("lastErrorObject"), "n") : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static long batchSize(BsonDocument reply, String batch) {
+        if (!reply.isDocument("cursor") || !reply.getDocument("cursor").isArray(batch))
+            return 0;
+        return reply.getDocument("cursor").getArray(batch).size();
+    }
+
+    private static long count(BsonDocument reply, String field) {
+        return reply.isNumber(field) ? reply.getNumber(field).longValue() : 0;
+    }
+}
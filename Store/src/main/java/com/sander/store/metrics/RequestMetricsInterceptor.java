@@ -0,0 +1,66 @@
+package com.sander.store.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the number of Mongo commands and of documents read and written per request, by endpoint,
+ * next to the request latencies recorded as http.server.requests. Many commands for a single request
+ * point to queries issued per item instead of per collection
+ */
+public class RequestMetricsInterceptor extends HandlerInterceptorAdapter {
+
+    static final String COMMANDS = "store.requests.mongo.commands", DOCUMENTS = "store.requests.mongo.documents";
+
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private final MeterRegistry meterRegistry;
+
+    public RequestMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // dispatches of asynchronous results are not counted again
+        if (request.getDispatcherType() == DispatcherType.REQUEST)
+            RequestMongoStatistics.start();
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // the request continues on another thread, its commands can not be attributed
+        RequestMongoStatistics.stop();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+
+        RequestMongoStatistics statistics = RequestMongoStatistics.stop();
+        if (statistics == null)
+            return;
+
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern == null ? UNKNOWN : pattern.toString();
+
+        summary(COMMANDS, request.getMethod(), uri, null).record(statistics.getCommands());
+        summary(DOCUMENTS, request.getMethod(), uri, "read").record(statistics.getDocumentsRead());
+        summary(DOCUMENTS, request.getMethod(), uri, "written").record(statistics.getDocumentsWritten());
+    }
+
+    private DistributionSummary summary(String name, String method, String uri, String operation) {
+        DistributionSummary.Builder builder = DistributionSummary.builder(name)
+                .tag("method", method)
+                .tag("uri", uri);
+        if (operation != null)
+            builder.tag("operation", operation);
+        return builder.register(meterRegistry);
+    }
+}
@@ -0,0 +1,57 @@
+package com.sander.store.metrics;
+
+/**
+ * Mongo commands and documents of the request handled by the current thread. The synchronous driver
+ * notifies command listeners on the calling thread, so commands are attributed to the request that
+ * issued them. Work handed to other threads, e.g. by the asynchronous endpoints, is not attributed
+ */
+final class RequestMongoStatistics {
+
+    private static final ThreadLocal<RequestMongoStatistics> CURRENT = new ThreadLocal<>();
+
+    private long commands, documentsRead, documentsWritten;
+
+    private RequestMongoStatistics() {
+    }
+
+    /**
+     * Start counting for the request handled by the current thread
+     */
+    static void start() {
+        CURRENT.set(new RequestMongoStatistics());
+    }
+
+    /**
+     * Stop counting for the current thread
+     * @return the counts of the request, null if none was started
+     */
+    static RequestMongoStatistics stop() {
+        RequestMongoStatistics statistics = CURRENT.get();
+        CURRENT.remove();
+        return statistics;
+    }
+
+    /**
+     * Count a command for the request handled by the current thread, if any
+     */
+    static void record(long read, long written) {
+        RequestMongoStatistics statistics = CURRENT.get();
+        if (statistics == null)
+            return;
+        statistics.commands++;
+        statistics.documentsRead += read;
+        statistics.documentsWritten += written;
+    }
+
+    long getCommands() {
+        return commands;
+    }
+
+    long getDocumentsRead() {
+        return documentsRead;
+    }
+
+    long getDocumentsWritten() {
+        return documentsWritten;
+    }
+}
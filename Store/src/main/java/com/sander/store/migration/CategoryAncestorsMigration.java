@@ -0,0 +1,45 @@
+package com.sander.store.migration;
+
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.repository.CategoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds the ancestors to categories which have been stored before the ancestors were introduced
+ */
+@Component
+public class CategoryAncestorsMigration implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CategoryAncestorsMigration.class);
+    private final CategoryRepository categoryRepository;
+    private final CategoryChangeCounter categoryChangeCounter;
+    private final ChangeLog changeLog;
+
+    @Autowired
+    public CategoryAncestorsMigration(CategoryRepository categoryRepository, CategoryChangeCounter categoryChangeCounter,
+                                      ChangeLog changeLog) {
+        this.categoryRepository = categoryRepository;
+        this.categoryChangeCounter = categoryChangeCounter;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        try {
+            int updated = categoryRepository.updateMissingAncestors();
+            if (updated > 0) {
+                categoryChangeCounter.increment();
+                changeLog.publish(ChangeLog.Type.CATEGORY);
+                LOGGER.info("Added ancestors to " + updated + " categories");
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Could not add ancestors to categories", ex);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.sander.store.migration;
+
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.repository.CategoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Orders the products of categories which have been stored before products were kept ordered by id
+ */
+@Component
+public class CategoryProductOrderMigration implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CategoryProductOrderMigration.class);
+    private final CategoryRepository categoryRepository;
+    private final CategoryChangeCounter categoryChangeCounter;
+    private final ChangeLog changeLog;
+
+    @Autowired
+    public CategoryProductOrderMigration(CategoryRepository categoryRepository, CategoryChangeCounter categoryChangeCounter,
+                                         ChangeLog changeLog) {
+        this.categoryRepository = categoryRepository;
+        this.categoryChangeCounter = categoryChangeCounter;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        try {
+            long sorted = categoryRepository.sortProducts();
+            if (sorted > 0) {
+                categoryChangeCounter.increment();
+                changeLog.publish(ChangeLog.Type.CATEGORY);
+                LOGGER.info("Ordered products of " + sorted + " categories");
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Could not order products of categories", ex);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.sander.store.migration;
+
+import com.sander.store.cache.ProductCache;
+import com.sander.store.changes.ChangeLog;
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.CurrencyRateSnapshot;
+import com.sander.store.repository.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Converts the decimal value of products which have been stored before prices were kept in minor
+ * units into amount and scale, and prices them again if rates are available
+ */
+@Component
+public class ProductAmountMigration implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ProductAmountMigration.class);
+    private final ProductRepository productRepository;
+    private final CurrencyConversionProvider currencyConversionProvider;
+    private final ProductCache productCache;
+    private final ChangeLog changeLog;
+
+    @Autowired
+    public ProductAmountMigration(ProductRepository productRepository, CurrencyConversionProvider currencyConversionProvider,
+                                  ProductCache productCache, ChangeLog changeLog) {
+        this.productRepository = productRepository;
+        this.currencyConversionProvider = currencyConversionProvider;
+        this.productCache = productCache;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        try {
+            int updated = productRepository.updateMissingAmounts();
+            if (updated > 0) {
+                productCache.invalidateAll();
+                LOGGER.info("Converted values of " + updated + " products into minor units");
+                // the stored rates may still be loading in the background
+                CurrencyRateSnapshot rates = currencyConversionProvider.getSnapshot();
+                if (rates.isEmpty())
+                    rates = currencyConversionProvider.reloadRates();
+                if (!rates.isEmpty())
+                    productRepository.updateBasePrices(rates);
+                changeLog.publish(ChangeLog.Type.PRODUCT);
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Could not convert values of products into minor units", ex);
+        }
+    }
+}
@@ -4,17 +4,25 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.index.Indexed;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 /**
  * Describes a simple Category containing a unique id,
  * a name, a distinct url (modelling category path) and a
- * set of associated products
+ * set of associated products.
+ *
+ * The paths of all parent categories are kept as indexed ancestors, so that a
+ * category and all its subcategories can be queried without matching path prefixes.
+ * Products are kept ordered by id, so that they can be paged without sorting them
  */
 public class Category {
 
+    public static final String SEPARATOR = "_";
+
     @Id
     private String id;
 
@@ -25,7 +33,10 @@ public class Category {
     private String categoryPath;
 
     @Indexed
-    private Set<String> products = new HashSet<>();
+    private List<String> ancestors = new ArrayList<>();
+
+    @Indexed
+    private SortedSet<String> products = new TreeSet<>();
 
     @Version
     private Long version;
@@ -36,6 +47,7 @@ public class Category {
                 "id='" + id + '\'' +
                 ", name='" + name + '\'' +
                 ", categoryPath='" + categoryPath + '\'' +
+                ", ancestors=" + ancestors +
                 ", products=" + products +
                 ", version=" + version +
                 '}';
@@ -59,6 +71,11 @@ public class Category {
 
     public void setCategoryPath(String categoryPath) {
         this.categoryPath = categoryPath;
+        this.ancestors = ancestorsOf(categoryPath);
+    }
+
+    public List<String> getAncestors() {
+        return ancestors;
     }
 
     public Set<String> getProducts() {
@@ -66,7 +83,7 @@ public class Category {
     }
 
     public void setProducts(Set<String> products) {
-        this.products = products;
+        this.products = new TreeSet<>(products);
     }
 
     public void removeProduct(String id) {
@@ -85,7 +102,31 @@ public class Category {
         products.removeAll(productIds);
     }
 
-    public void updateCategoryPath(String oldPathPath, String pathPart) {
-        this.categoryPath = categoryPath.replaceFirst(oldPathPath, pathPart);
+    /**
+     * Move this category from below oldPath to below newPath, if it is oldPath
+     * itself or one of its subcategories
+     *
+     * @param oldPath
+     * @param newPath
+     */
+    public void updateCategoryPath(String oldPath, String newPath) {
+        if(categoryPath.equals(oldPath))
+            setCategoryPath(newPath);
+        else if(categoryPath.startsWith(oldPath + SEPARATOR))
+            setCategoryPath(newPath + categoryPath.substring(oldPath.length()));
+    }
+
+    /**
+     * @param categoryPath e.g. C1_C2_C3
+     * @return paths of all parent categories, e.g. [C1, C1_C2]
+     */
+    public static List<String> ancestorsOf(String categoryPath) {
+        List<String> ancestors = new ArrayList<>();
+        int index = categoryPath.indexOf(SEPARATOR);
+        while(index >= 0) {
+            ancestors.add(categoryPath.substring(0, index));
+            index = categoryPath.indexOf(SEPARATOR, index + 1);
+        }
+        return ancestors;
     }
 }
@@ -0,0 +1,28 @@
+package com.sander.store.pojo;
+
+import java.util.List;
+
+/**
+ * Request body to create or rename a category or to change its products
+ */
+public class CategoryData {
+
+    private String name;
+    private List<String> products;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getProducts() {
+        return products;
+    }
+
+    public void setProducts(List<String> products) {
+        this.products = products;
+    }
+}
@@ -1,18 +1,32 @@
 package com.sander.store.pojo;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.CurrencyRateSnapshot;
+import com.sander.store.currency.Money;
+import com.sander.store.exceptions.CurrencyISONotFoundException;
+import com.sander.store.exceptions.InvalidProductException;
 import com.sander.store.exceptions.ProductUpdateException;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
- * Describes a simple product
+ * Describes a simple product. Its price is kept as amount of minor units of its currency together
+ * with the scale of the currency and is represented as decimal value in JSON. Besides its price a
+ * product keeps its price in euro cents as base price, indexed for price range queries and
+ * recomputed whenever the rates change
  */
+@CompoundIndex(name = "basePrice", def = "{'basePrice': 1, '_id': 1}")
 public class Product {
 
-    private static final String NAME = "name";
+    public static final String AMOUNT = "amount", SCALE = "scale";
+
+    private static final String NAME = "name", BASE_PRICE = "basePrice";
 
     @Id
     private String id;
@@ -20,29 +34,107 @@ public class Product {
     @Version
     private Long version;
 
-    private String name, currencyIso;
-    private double value;
+    @Indexed
+    private String name;
+
+    private String currencyIso;
+    private long amount;
+    private int scale = Money.DEFAULT_SCALE;
+    private Long basePrice;
 
     public void setName(String name) {
         this.name = name;
     }
 
+    /**
+     * @param value decimal value in the current currency, rounded to its minor units
+     */
     public void setValue(double value) {
-        this.value = value;
+        this.amount = Money.toMinorUnits(value, scale);
     }
 
+    /**
+     * Change the currency keeping the value, see {@link #setPrice(long, int, String)} to convert
+     * @param currencyIso
+     */
     public void setCurrencyIso(String currencyIso) {
+        double value = getValue();
+        this.currencyIso = currencyIso;
+        this.scale = Money.scale(currencyIso);
+        setValue(value);
+    }
+
+    /**
+     * @param amount minor units of the currency
+     * @param scale number of fraction digits of the currency
+     * @param currencyIso
+     */
+    public void setPrice(long amount, int scale, String currencyIso) {
+        this.amount = amount;
+        this.scale = scale;
         this.currencyIso = currencyIso;
     }
 
+    /**
+     * @return price in minor units of the currency
+     */
+    @JsonIgnore
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return number of fraction digits of the amount
+     */
+    @JsonIgnore
+    public int getScale() {
+        return scale;
+    }
+
     public String getId() { return id; }
 
+    /**
+     * @return price in euro cents, null if the rate of the currency was unknown
+     */
+    @JsonIgnore
+    public Long getBasePrice() {
+        return basePrice;
+    }
+
+    public void setBasePrice(Long basePrice) {
+        this.basePrice = basePrice;
+    }
+
+    /**
+     * Recompute the base price, it is removed if the currency is not available inside the rates or
+     * the price in euro does not fit
+     * @param rates
+     */
+    public void updateBasePrice(CurrencyRateSnapshot rates) {
+        try {
+            basePrice = rates.convert(amount, currencyIso, CurrencyConversionProvider.EUR);
+        } catch (CurrencyISONotFoundException | ArithmeticException ex) {
+            basePrice = null;
+        }
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
     public String getName() {
         return name;
     }
 
+    /**
+     * @return decimal value of the price
+     */
     public double getValue() {
-        return value;
+        return Money.toValue(amount, scale);
     }
 
     public String getCurrencyIso() {
@@ -52,8 +144,53 @@ public class Product {
     public static Product newProduct(String name, double value, String currencyIso) {
         Product product = new Product();
         product.setName(name);
-        product.setValue(value);
         product.setCurrencyIso(currencyIso);
+        product.setValue(value);
+        return product;
+    }
+
+    /**
+     * @return a copy of this product, e.g. to convert the currency of a shared instance
+     */
+    public Product copy() {
+        Product product = new Product();
+        product.name = name;
+        product.setPrice(amount, scale, currencyIso);
+        product.id = id;
+        product.version = version;
+        product.basePrice = basePrice;
+        return product;
+    }
+
+    /**
+     * Create a product from request data, name and a positive value are required, the currency
+     * is optional (EUR by default) but has to be available inside the given rates
+     *
+     * @param data
+     * @param rates
+     * @return new product without id, with base price
+     * @throws InvalidProductException if a field is missing or invalid
+     */
+    public static Product fromData(ProductData data, CurrencyRateSnapshot rates) throws InvalidProductException {
+
+        if(data.getName() == null)
+            throw new InvalidProductException(NAME);
+
+        String currencyIso = data.getCurrencyIso();
+        if(currencyIso == null)
+            currencyIso = CurrencyConversionProvider.EUR;
+        else if(!rates.contains(currencyIso))
+            throw new InvalidProductException(CurrencyConversionProvider.CURRENCY_ISO);
+
+        int scale = Money.scale(currencyIso);
+        Long amount = amountOf(data.getValue(), scale);
+        if(amount == null)
+            throw new InvalidProductException(CurrencyConversionProvider.VALUE);
+
+        Product product = new Product();
+        product.setName(data.getName());
+        product.setPrice(amount, scale, currencyIso);
+        product.updateBasePrice(rates);
         return product;
     }
 
@@ -62,29 +199,61 @@ public class Product {
         return "Product{" +
                 "id=" + id +
                 ", name='" + name + '\'' +
-                ", value=" + value +
+                ", value=" + getValue() +
                 ", currencyIso='" + currencyIso + '\'' +
                 '}';
     }
 
-    public void update(Map<String, Object> dataMap) throws ProductUpdateException {
+    /**
+     * Fields changed by update data, to be set on the stored product without rewriting it. Name and
+     * value can be changed, a changed value comes with its base price in the currency of this
+     * product, which can not be changed
+     *
+     * @param data
+     * @param rates
+     * @return field names and new values, a null value removes the field
+     * @throws ProductUpdateException if a sent field is invalid
+     */
+    public Map<String, Object> changes(ProductData data, CurrencyRateSnapshot rates) throws ProductUpdateException {
 
-        if(dataMap.containsKey(NAME)) {
-            String name = (String) dataMap.get(NAME);
-            if(name != null)
-                setName(name);
+        Map<String, Object> changes = new LinkedHashMap<>();
+
+        if(data.hasName()) {
+            if(data.getName() != null)
+                changes.put(NAME, data.getName());
             else
                 throw new ProductUpdateException(NAME);
         }
 
-        if(dataMap.containsKey(CurrencyConversionProvider.VALUE)) {
-            double value = (double) dataMap.get(CurrencyConversionProvider.VALUE);
-            if(value > 0)
-                setValue(value);
+        if(data.hasValue()) {
+            Long amount = amountOf(data.getValue(), scale);
+            if(amount != null) {
+                Product changed = copy();
+                changed.setPrice(amount, scale, currencyIso);
+                changed.updateBasePrice(rates);
+                changes.put(AMOUNT, changed.getAmount());
+                changes.put(BASE_PRICE, changed.getBasePrice());
+            }
             else
                 throw new ProductUpdateException(CurrencyConversionProvider.VALUE);
         }
 
         // TODO can be extended so that only currency can be updated and value is adapted automatically
+        return changes;
+    }
+
+    /**
+     * @return minor units of a positive value, null if the value is missing, not positive in minor
+     * units or too large
+     */
+    private static Long amountOf(Double value, int scale) {
+        if(value == null || !(value > 0) || Double.isInfinite(value))
+            return null;
+        try {
+            long amount = Money.toMinorUnits(value, scale);
+            return amount > 0 ? amount : null;
+        } catch (ArithmeticException ex) {
+            return null;
+        }
     }
 }
@@ -0,0 +1,69 @@
+package com.sander.store.pojo;
+
+/**
+ * Request body to create or update a product, bound directly from the request stream.
+ * Remembers which fields were sent, so an explicit null can be told apart from a missing field
+ */
+public class ProductData {
+
+    private String name, currencyIso, category;
+    private Double value;
+    private Long version;
+    private boolean nameSent, valueSent;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+        this.nameSent = true;
+    }
+
+    public Double getValue() {
+        return value;
+    }
+
+    public void setValue(Double value) {
+        this.value = value;
+        this.valueSent = true;
+    }
+
+    public String getCurrencyIso() {
+        return currencyIso;
+    }
+
+    public void setCurrencyIso(String currencyIso) {
+        this.currencyIso = currencyIso;
+    }
+
+    /**
+     * @return id of the category the created product is added to
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    /**
+     * @return version the update is based on, null to update any version
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public boolean hasName() {
+        return nameSent;
+    }
+
+    public boolean hasValue() {
+        return valueSent;
+    }
+}
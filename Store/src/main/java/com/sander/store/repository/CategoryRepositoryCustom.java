@@ -0,0 +1,119 @@
+package com.sander.store.repository;
+
+import com.sander.store.exceptions.SubtreeMoveException;
+import com.sander.store.pojo.Category;
+
+import com.mongodb.BulkWriteResult;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Category queries which are not covered by derived query methods
+ */
+public interface CategoryRepositoryCustom {
+
+    /**
+     * Find a category and all its subcategories using the indexed ancestors,
+     * only whole path segments are matched
+     *
+     * @param categoryPath
+     * @return the category and all its subcategories
+     */
+    public List<Category> findSubtree(String categoryPath);
+
+    /**
+     * Rename a category and move all its subcategories along using ordered bulk updates, only
+     * the ids and paths of the subtree are read. The category itself is renamed last, so that
+     * a failed move can be repeated. Nothing is written if the path does not change
+     *
+     * @param categoryPath current path of the category
+     * @param newPath new path of the category
+     * @param newName new name of the category
+     * @return number of rewritten subcategories
+     * @throws SubtreeMoveException if a write failed, holding the number of subcategories moved before
+     */
+    public long moveSubtree(String categoryPath, String newPath, String newName) throws SubtreeMoveException;
+
+    /**
+     * Delete a category and all its subcategories with a single delete
+     *
+     * @param categoryPath
+     * @return number of deleted categories
+     */
+    public long deleteSubtree(String categoryPath);
+
+    /**
+     * Add and remove products of a category with atomic $push / $pull updates sent in one round
+     * trip, the stored products are neither read nor rewritten and stay ordered by id. The version is
+     * raised by every added product and once if products are removed
+     *
+     * @param categoryPath
+     * @param added products to add, may be empty
+     * @param removed products to remove, may be empty
+     * @return matched and modified counts of all updates, matched is 0 if the category does not exist
+     */
+    public BulkWriteResult updateProducts(String categoryPath, Collection<String> added, Collection<String> removed);
+
+    /**
+     * Add products to several categories with one $push update per product sent in one round
+     * trip, unknown categories are ignored. The version of a category is raised by every product
+     * added to it
+     *
+     * @param productsByCategory product ids by category id
+     * @return number of added products
+     */
+    public long addProductsById(Map<String, ? extends Collection<String>> productsByCategory);
+
+    /**
+     * A page of the product ids of a category ordered by id, the ordered products are filtered and
+     * sliced by the database, so only the ids of the page are returned
+     *
+     * @param categoryPath
+     * @param after product id to start after, null for the first page
+     * @param limit max number of ids
+     * @return next product ids after the given id, null if the category does not exist
+     */
+    public List<String> findProductIds(String categoryPath, String after, int limit);
+
+    /**
+     * Reverse lookup of the categories a product is associated with, uses the products index
+     *
+     * @param productId
+     * @return ids of all categories containing the product
+     */
+    public List<String> findIdsByProduct(String productId);
+
+    /**
+     * Remove a product from all categories with a single update
+     *
+     * @param productId
+     * @return number of updated categories
+     */
+    public long removeProductFromAll(String productId);
+
+    /**
+     * Order the stored products of all categories by id, e.g. of categories stored before their
+     * products were kept ordered
+     *
+     * @return number of reordered categories
+     */
+    public long sortProducts();
+
+    /**
+     * Order the stored products of categories by id, e.g. after the categories have been written
+     * directly
+     *
+     * @param categoryIds
+     * @return number of reordered categories
+     */
+    public long sortProducts(Collection<String> categoryIds);
+
+    /**
+     * Set the ancestors of all categories stored without them
+     *
+     * @return number of updated categories
+     */
+    public int updateMissingAncestors();
+}
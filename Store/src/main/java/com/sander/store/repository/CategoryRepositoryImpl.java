@@ -0,0 +1,262 @@
+package com.sander.store.repository;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBList;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBObject;
+import com.sander.store.exceptions.SubtreeMoveException;
+import com.sander.store.pojo.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Implementation of {@link CategoryRepositoryCustom}, picked up by Spring Data for {@link CategoryRepository}.
+ *
+ * The products of a category are stored as array ordered by id, every update keeps it ordered, so
+ * that pages of the products are sliced from the stored array
+ */
+public class CategoryRepositoryImpl implements CategoryRepositoryCustom {
+
+    static final String ID = "_id", NAME = "name", CATEGORY_PATH = "categoryPath", ANCESTORS = "ancestors",
+        VERSION = "version", PRODUCTS = "products";
+    static final int BATCH_SIZE = 1000;
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public CategoryRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public List<Category> findSubtree(String categoryPath) {
+        return mongoOperations.find(subtree(categoryPath), Category.class);
+    }
+
+    @Override
+    public long moveSubtree(String categoryPath, String newPath, String newName) throws SubtreeMoveException {
+
+        if (newPath.equals(categoryPath))
+            return 0;
+
+        Query query = new Query(where(ANCESTORS).is(categoryPath));
+        query.fields().include(CATEGORY_PATH);
+
+        long descendants = 0;
+        int pending = 0;
+        BulkOperations bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.ORDERED, Category.class);
+
+        try {
+            try (CloseableIterator<Category> categories = mongoOperations.stream(query, Category.class)) {
+                while (categories.hasNext()) {
+                    Category category = categories.next();
+                    category.updateCategoryPath(categoryPath, newPath);
+                    bulk.updateOne(new Query(where(ID).is(category.getId())), new Update()
+                            .set(CATEGORY_PATH, category.getCategoryPath())
+                            .set(ANCESTORS, category.getAncestors())
+                            .inc(VERSION, 1));
+
+                    if (++pending == BATCH_SIZE) {
+                        bulk.execute();
+                        descendants += pending;
+                        bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.ORDERED, Category.class);
+                        pending = 0;
+                    }
+                }
+            }
+
+            if (pending > 0) {
+                bulk.execute();
+                descendants += pending;
+            }
+
+            // last, so that a failed move can be repeated under the old path
+            mongoOperations.updateFirst(new Query(where(CATEGORY_PATH).is(categoryPath)), new Update()
+                    .set(CATEGORY_PATH, newPath)
+                    .set(NAME, newName)
+                    .inc(VERSION, 1), Category.class);
+        } catch (BulkOperationException ex) {
+            // ordered, the updates before the failed one have been applied
+            throw new SubtreeMoveException(categoryPath, descendants + ex.getResult().getModifiedCount(), ex);
+        } catch (DataAccessException ex) {
+            throw new SubtreeMoveException(categoryPath, descendants, ex);
+        }
+
+        return descendants;
+    }
+
+    @Override
+    public long deleteSubtree(String categoryPath) {
+        return mongoOperations.remove(subtree(categoryPath), Category.class).getN();
+    }
+
+    @Override
+    public BulkWriteResult updateProducts(String categoryPath, Collection<String> added, Collection<String> removed) {
+
+        BulkOperations bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.ORDERED, Category.class);
+
+        // only matched if they change the products, so that the version is not raised by no-ops
+        for (String productId : added)
+            bulk.updateOne(new Query(where(CATEGORY_PATH).is(categoryPath).and(PRODUCTS).ne(productId)), addProduct(productId));
+        if (!removed.isEmpty())
+            bulk.updateOne(new Query(where(CATEGORY_PATH).is(categoryPath).and(PRODUCTS).in(removed)),
+                    new Update().pullAll(PRODUCTS, removed.toArray()).inc(VERSION, 1));
+        // matches if the category exists
+        bulk.updateOne(new Query(where(CATEGORY_PATH).is(categoryPath)), new Update().addToSet(PRODUCTS).each());
+
+        return bulk.execute();
+    }
+
+    @Override
+    public long addProductsById(Map<String, ? extends Collection<String>> productsByCategory) {
+
+        if (productsByCategory.isEmpty())
+            return 0;
+
+        BulkOperations bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, Category.class);
+        int pending = 0;
+        for (Map.Entry<String, ? extends Collection<String>> entry : productsByCategory.entrySet()) {
+            for (String productId : entry.getValue()) {
+                bulk.updateOne(new Query(where(ID).is(entry.getKey()).and(PRODUCTS).ne(productId)), addProduct(productId));
+                pending++;
+            }
+        }
+        return pending == 0 ? 0 : bulk.execute().getModifiedCount();
+    }
+
+    @Override
+    public List<String> findProductIds(String categoryPath, String after, int limit) {
+
+        // the stored products are ordered, so the page starts at the first one after the given id
+        Object products = "$" + PRODUCTS;
+        if(after != null)
+            products = new BasicDBObject("$filter", new BasicDBObject("input", products)
+                    .append("as", "product")
+                    .append("cond", new BasicDBObject("$gt", Arrays.asList("$$product", after))));
+
+        List<DBObject> pipeline = new ArrayList<>();
+        pipeline.add(new BasicDBObject("$match", new BasicDBObject(CATEGORY_PATH, categoryPath)));
+        pipeline.add(new BasicDBObject("$project", new BasicDBObject(ID, 0)
+                .append(PRODUCTS, new BasicDBObject("$slice", Arrays.asList(products, limit)))));
+
+        // run with a cursor, MongoTemplate of this version only sends aggregations without one
+        AggregationOptions options = AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build();
+        try (Cursor cursor = mongoOperations.getCollection(mongoOperations.getCollectionName(Category.class))
+                .aggregate(pipeline, options)) {
+            if (!cursor.hasNext())
+                return null;
+            BasicDBList page = (BasicDBList) cursor.next().get(PRODUCTS);
+            List<String> ids = new ArrayList<>(limit);
+            if (page != null)
+                page.forEach(id -> ids.add((String) id));
+            return ids;
+        }
+    }
+
+    @Override
+    public List<String> findIdsByProduct(String productId) {
+        Query query = new Query(where(PRODUCTS).is(productId));
+        query.fields().include(ID);
+        return mongoOperations.find(query, Category.class).stream()
+                .map(Category::getId)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long removeProductFromAll(String productId) {
+        return mongoOperations.updateMulti(
+                new Query(where(PRODUCTS).is(productId)),
+                new Update().pull(PRODUCTS, productId).inc(VERSION, 1),
+                Category.class
+        ).getN();
+    }
+
+    @Override
+    public long sortProducts() {
+        // a single product is always ordered
+        return sortProducts(new Query(where(PRODUCTS + ".1").exists(true)));
+    }
+
+    @Override
+    public long sortProducts(Collection<String> categoryIds) {
+        if (categoryIds.isEmpty())
+            return 0;
+        return sortProducts(new Query(where(ID).in(categoryIds)));
+    }
+
+    @Override
+    public int updateMissingAncestors() {
+
+        Query query = new Query(where(ANCESTORS).exists(false));
+        query.fields().include(CATEGORY_PATH);
+
+        int updated = 0, pending = 0;
+        BulkOperations bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, Category.class);
+
+        try (CloseableIterator<Category> categories = mongoOperations.stream(query, Category.class)) {
+            while (categories.hasNext()) {
+                Category category = categories.next();
+                bulk.updateOne(new Query(where(ID).is(category.getId())),
+                        Update.update(ANCESTORS, Category.ancestorsOf(category.getCategoryPath())));
+                if (++pending == BATCH_SIZE) {
+                    updated += bulk.execute().getModifiedCount();
+                    bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, Category.class);
+                    pending = 0;
+                }
+            }
+        }
+
+        if (pending > 0)
+            updated += bulk.execute().getModifiedCount();
+        return updated;
+    }
+
+    /**
+     * @param productId
+     * @return update inserting the product at its position within the ordered products
+     */
+    private static Update addProduct(String productId) {
+        return new Update().push(PRODUCTS).sort(Sort.Direction.ASC).each(productId).inc(VERSION, 1);
+    }
+
+    /**
+     * Order the stored products of all categories matching the query, categories already ordered
+     * are not modified
+     * @param categories
+     * @return number of modified categories
+     */
+    private long sortProducts(Query categories) {
+        return mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, Category.class)
+                .updateMulti(categories, new Update().push(PRODUCTS).sort(Sort.Direction.ASC).each())
+                .execute().getModifiedCount();
+    }
+
+    /**
+     * @param categoryPath
+     * @return query matching the category and all its subcategories
+     */
+    static Query subtree(String categoryPath) {
+        return new Query(new Criteria().orOperator(
+                where(CATEGORY_PATH).is(categoryPath),
+                where(ANCESTORS).is(categoryPath)));
+    }
+}
@@ -1,6 +1,9 @@
 package com.sander.store.repository;
 
-import com.sander.store.currency.CurrencyRate;
+import com.sander.store.currency.CurrencyRateSet;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-public interface CurrencyRepository extends MongoRepository<CurrencyRate, String> {}
+public interface CurrencyRepository extends MongoRepository<CurrencyRateSet, Long> {
+    public CurrencyRateSet findTopByOrderByVersionDesc();
+    public Long deleteByVersionLessThan(Long version);
+}
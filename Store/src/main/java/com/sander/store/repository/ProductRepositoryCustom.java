@@ -0,0 +1,90 @@
+package com.sander.store.repository;
+
+import com.sander.store.currency.CurrencyRateSnapshot;
+import com.sander.store.pojo.Product;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Product queries which are not covered by derived query methods
+ */
+public interface ProductRepositoryCustom {
+
+    /**
+     * Keyset pagination, products are ordered by id
+     *
+     * @param after id of the last product of the previous page, null for the first page
+     * @param limit max number of products
+     * @return next products after the given id
+     */
+    public List<Product> findPage(String after, int limit);
+
+    /**
+     * Stream products ordered by id using a cursor, the iterator has to be closed
+     *
+     * @param after id to start after, null to stream all products
+     * @return cursor backed iterator
+     */
+    public CloseableIterator<Product> streamAll(String after);
+
+    /**
+     * Insert products with a single bulk write, the products need to have ids assigned
+     *
+     * @param products
+     * @param ordered stop at the first failing insert if true
+     * @throws org.springframework.data.mongodb.BulkOperationException if any insert failed
+     */
+    public void insertAll(List<Product> products, boolean ordered);
+
+    /**
+     * Products by base price using the base price index, products without base price are left out
+     *
+     * @param min lowest base price in euro cents, null for no lower bound
+     * @param max highest base price in euro cents, null for no upper bound
+     * @param direction order by base price, products with the same base price by id
+     * @param limit max number of products
+     * @return
+     */
+    public List<Product> findByBasePrice(Long min, Long max, Sort.Direction direction, int limit);
+
+    /**
+     * Recompute the base price of all products not priced in euro and of products without base
+     * price. Products changed since they were read are left to the writer
+     *
+     * @param rates
+     * @return number of updated products
+     */
+    public long updateBasePrices(CurrencyRateSnapshot rates);
+
+    /**
+     * Set fields of a single product and increment its version in one round trip, without reading
+     * or rewriting the whole document
+     *
+     * @param id
+     * @param version expected current version, null to update any version
+     * @param fields field names and values, a null value removes the field
+     * @return the updated product, null if it does not exist or has a different version
+     */
+    public Product updateFields(String id, Long version, Map<String, Object> fields);
+
+    /**
+     * Products by id ordered by id, unknown ids are left out
+     *
+     * @param ids bounded number of ids, sent as a single $in query
+     * @param fields fields to read besides the id, null to read whole products
+     * @return
+     */
+    public List<Product> findByIds(Collection<String> ids, Collection<String> fields);
+
+    /**
+     * Convert the decimal value of all products stored before prices were kept in minor units into
+     * amount and scale. Their base prices are removed, to be recomputed by {@link #updateBasePrices}
+     *
+     * @return number of updated products
+     */
+    public int updateMissingAmounts();
+}
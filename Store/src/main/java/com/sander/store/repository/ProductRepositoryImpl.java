@@ -0,0 +1,189 @@
+package com.sander.store.repository;
+
+import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.CurrencyRateSnapshot;
+import com.sander.store.currency.Money;
+import com.sander.store.pojo.Product;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Implementation of {@link ProductRepositoryCustom}, picked up by Spring Data for {@link ProductRepository}
+ */
+public class ProductRepositoryImpl implements ProductRepositoryCustom {
+
+    private static final String ID = "_id", CURRENCY_ISO = "currencyIso", BASE_PRICE = "basePrice",
+            VERSION = "version", VALUE = "value";
+    private static final int BATCH_SIZE = 1000;
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public ProductRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public List<Product> findPage(String after, int limit) {
+        return mongoOperations.find(orderedById(after).limit(limit), Product.class);
+    }
+
+    @Override
+    public CloseableIterator<Product> streamAll(String after) {
+        return mongoOperations.stream(orderedById(after), Product.class);
+    }
+
+    @Override
+    public void insertAll(List<Product> products, boolean ordered) {
+        mongoOperations.bulkOps(ordered ? BulkOperations.BulkMode.ORDERED : BulkOperations.BulkMode.UNORDERED, Product.class)
+                .insert(products)
+                .execute();
+    }
+
+    @Override
+    public List<Product> findByBasePrice(Long min, Long max, Sort.Direction direction, int limit) {
+
+        Criteria basePrice = where(BASE_PRICE);
+        if(min == null && max == null)
+            basePrice.ne(null);
+        if(min != null)
+            basePrice.gte(min);
+        if(max != null)
+            basePrice.lte(max);
+
+        Query query = new Query(basePrice)
+                .with(new Sort(direction, BASE_PRICE, ID))
+                .limit(limit);
+        return mongoOperations.find(query, Product.class);
+    }
+
+    @Override
+    public long updateBasePrices(CurrencyRateSnapshot rates) {
+
+        Query query = new Query(new Criteria().orOperator(
+                where(CURRENCY_ISO).ne(CurrencyConversionProvider.EUR),
+                where(BASE_PRICE).exists(false)));
+        query.fields().include(ID).include(Product.AMOUNT).include(Product.SCALE).include(CURRENCY_ISO).include(BASE_PRICE);
+
+        long updated = 0;
+        BulkOperations bulk = null;
+        int pending = 0;
+
+        try (CloseableIterator<Product> products = mongoOperations.stream(query, Product.class)) {
+            while (products.hasNext()) {
+
+                Product product = products.next();
+                Long previous = product.getBasePrice();
+                product.updateBasePrice(rates);
+                if (Objects.equals(previous, product.getBasePrice()))
+                    continue;
+
+                if (bulk == null)
+                    bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+
+                // only if amount and currency are still the ones the base price was computed from
+                Query unchanged = new Query(where(ID).is(product.getId())
+                        .and(Product.AMOUNT).is(product.getAmount())
+                        .and(CURRENCY_ISO).is(product.getCurrencyIso()));
+                bulk.updateOne(unchanged, product.getBasePrice() == null ?
+                        new Update().unset(BASE_PRICE) :
+                        Update.update(BASE_PRICE, product.getBasePrice()));
+
+                if (++pending == BATCH_SIZE) {
+                    updated += bulk.execute().getModifiedCount();
+                    bulk = null;
+                    pending = 0;
+                }
+            }
+        }
+
+        if (bulk != null)
+            updated += bulk.execute().getModifiedCount();
+        return updated;
+    }
+
+    @Override
+    public Product updateFields(String id, Long version, Map<String, Object> fields) {
+
+        Criteria criteria = where(ID).is(id);
+        if(version != null)
+            criteria.and(VERSION).is(version);
+
+        Update update = new Update().inc(VERSION, 1);
+        fields.forEach((field, value) -> {
+            if(value == null)
+                update.unset(field);
+            else
+                update.set(field, value);
+        });
+
+        return mongoOperations.findAndModify(new Query(criteria), update,
+                FindAndModifyOptions.options().returnNew(true), Product.class);
+    }
+
+    @Override
+    public List<Product> findByIds(Collection<String> ids, Collection<String> fields) {
+        Query query = new Query(where(ID).in(ids)).with(new Sort(Sort.Direction.ASC, ID));
+        if(fields != null)
+            fields.forEach(query.fields()::include);
+        return mongoOperations.find(query, Product.class);
+    }
+
+    @Override
+    public int updateMissingAmounts() {
+
+        Query query = new Query(where(Product.AMOUNT).exists(false).and(VALUE).exists(true));
+        query.fields().include(ID).include(VALUE).include(CURRENCY_ISO);
+
+        int updated = 0, pending = 0;
+        BulkOperations bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+
+        // read as plain documents, the value is no longer mapped
+        try (CloseableIterator<DBObject> products = mongoOperations.stream(query, DBObject.class,
+                mongoOperations.getCollectionName(Product.class))) {
+            while (products.hasNext()) {
+                DBObject product = products.next();
+                int scale = Money.scale((String) product.get(CURRENCY_ISO));
+                long amount = Money.toMinorUnits(((Number) product.get(VALUE)).doubleValue(), scale);
+
+                bulk.updateOne(new Query(where(ID).is(product.get(ID))), new Update()
+                        .set(Product.AMOUNT, amount)
+                        .set(Product.SCALE, scale)
+                        .unset(VALUE)
+                        .unset(BASE_PRICE));
+                if (++pending == BATCH_SIZE) {
+                    updated += bulk.execute().getModifiedCount();
+                    bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+                    pending = 0;
+                }
+            }
+        }
+
+        if (pending > 0)
+            updated += bulk.execute().getModifiedCount();
+        return updated;
+    }
+
+    private Query orderedById(String after) {
+        Query query = new Query().with(new Sort(Sort.Direction.ASC, ID));
+        if(after != null)
+            query.addCriteria(where(ID).gt(new ObjectId(after)));
+        return query;
+    }
+}
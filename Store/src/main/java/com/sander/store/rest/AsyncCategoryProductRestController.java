@@ -0,0 +1,147 @@
+package com.sander.store.rest;
+
+import com.sander.store.jobs.RequestExecutors;
+import com.sander.store.pojo.CategoryData;
+import com.sander.store.pojo.ProductData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+
+/**
+ * Asynchronous variants of the {@link CategoryProductRestController} endpoints below /async. Requests
+ * are handled on the bounded read or write executor of {@link RequestExecutors} instead of the
+ * servlet thread and answered with 503 if the executor is saturated or the request timed out
+ */
+@RestController
+public class AsyncCategoryProductRestController {
+
+    private static final String ASYNC = "/async";
+
+    private final CategoryProductRestController controller;
+    private final RequestExecutors executors;
+
+    @Autowired
+    public AsyncCategoryProductRestController(CategoryProductRestController controller, RequestExecutors executors) {
+        this.controller = controller;
+        this.executors = executors;
+    }
+
+    // categories
+
+    @RequestMapping(value = ASYNC + "/categories/{categories}", method = RequestMethod.PUT)
+    public DeferredResult<ResponseEntity<?>> createCategory(
+            @PathVariable(value = "categories") String categories,
+            @RequestBody(required = false) CategoryData data
+    ) {
+        return executors.write(() -> controller.createCategory(categories, data));
+    }
+
+    @RequestMapping(value = ASYNC + "/categories", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<?>> readCategories(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
+    ) {
+        return executors.read(() -> controller.readCategories(ifNoneMatch, acceptEncoding));
+    }
+
+    @RequestMapping(value = ASYNC + "/categories/{categories}", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<?>> readCategoriesAndSubCategories(
+            @PathVariable(value = "categories") String categories,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        return executors.read(() -> controller.readCategoriesAndSubCategories(categories, ifNoneMatch));
+    }
+
+    @RequestMapping(value = ASYNC + "/categories/{categories}/products", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<?>> readAssociatedProducts(
+            @PathVariable(value = "categories") String categories,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "fields", required = false) List<String> fields,
+            @RequestParam(value = "currencyIso", required = false) String currencyIso
+    ) {
+        return executors.read(() -> controller.readAssociatedProducts(categories, after, limit, fields, currencyIso));
+    }
+
+    @RequestMapping(value = ASYNC + "/categories/{categories}", method = RequestMethod.POST)
+    public DeferredResult<ResponseEntity<?>> updateCategoryCategoryPath(
+            @PathVariable(value = "categories") String categories,
+            @RequestBody() CategoryData data
+    ) {
+        return executors.write(() -> controller.updateCategoryCategoryPath(categories, data));
+    }
+
+    @RequestMapping(value = ASYNC + "/categories/{categories}/products/{action}", method = RequestMethod.POST)
+    public DeferredResult<ResponseEntity<?>> updateCategoryProducts(
+            @PathVariable(value = "categories") String categories,
+            @PathVariable(value = "action") String action,
+            @RequestParam(value = "full", required = false, defaultValue = "false") boolean full,
+            @RequestBody() CategoryData data
+    ) {
+        return executors.write(() -> controller.updateCategoryProducts(categories, action, full, data));
+    }
+
+    @RequestMapping(value = ASYNC + "/categories/{categories}", method = RequestMethod.DELETE)
+    public DeferredResult<ResponseEntity<?>> deleteCategory(@PathVariable(value = "categories") String categories) {
+        return executors.write(() -> controller.deleteCategory(categories));
+    }
+
+    // products
+
+    /**
+     * Create a distinct product, it is added to its category in parallel to the insert
+     * @param data
+     * @return
+     */
+    @RequestMapping(value = ASYNC + "/products", method = RequestMethod.PUT)
+    public DeferredResult<ResponseEntity<?>> createProduct(@RequestBody() ProductData data) {
+        return executors.write(() -> controller.createProduct(data, executors.lookups()));
+    }
+
+    @RequestMapping(value = ASYNC + "/products", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<?>> readProducts(
+            @RequestParam(value = "id", required = false) String id,
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "currencyIso", required = false) String currencyIso,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "minPrice", required = false) Double minPrice,
+            @RequestParam(value = "maxPrice", required = false) Double maxPrice,
+            @RequestParam(value = "sort", required = false) String sort,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        return executors.read(() ->
+                controller.readProducts(id, name, currencyIso, after, limit, minPrice, maxPrice, sort, ifNoneMatch));
+    }
+
+    @RequestMapping(value = ASYNC + "/products/search", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<?>> searchProducts(
+            @RequestParam(value = "q") String q,
+            @RequestParam(value = "limit", required = false) Integer limit
+    ) {
+        return executors.read(() -> controller.searchProducts(q, limit));
+    }
+
+    @RequestMapping(value = ASYNC + "/products", method = RequestMethod.POST)
+    public DeferredResult<ResponseEntity<?>> updateProduct(
+            @RequestParam(value = "id") String id,
+            @RequestBody() ProductData data,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        return executors.write(() -> controller.updateProduct(id, data, ifMatch));
+    }
+
+    @RequestMapping(value = ASYNC + "/products/categories", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<?>> readProductCategories(@RequestParam(value = "id") String id) {
+        return executors.read(() -> controller.readProductCategories(id));
+    }
+
+    @RequestMapping(value = ASYNC + "/products", method = RequestMethod.DELETE)
+    public DeferredResult<ResponseEntity<?>> deleteProduct(@RequestParam(value = "id") String id) {
+        return executors.write(() -> controller.deleteProduct(id));
+    }
+}
@@ -0,0 +1,31 @@
+package com.sander.store.rest;
+
+import com.sander.store.cache.ProductCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class CacheRestController {
+
+    private final ProductCache productCache;
+
+    @Autowired
+    public CacheRestController(ProductCache productCache) {
+        this.productCache = productCache;
+    }
+
+    /**
+     * Size, hit, miss and eviction counters of the product cache
+     * @return
+     */
+    @RequestMapping(value = "/cache/products", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> readProductCacheStatistics() {
+        return new ResponseEntity<>(productCache.getStatistics(), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,58 @@
+package com.sander.store.rest;
+
+import com.sander.store.batch.CatalogTransfer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+@RestController
+public class CatalogRestController {
+
+    static final String APPLICATION_GZIP = "application/gzip", FILE_NAME = "catalog.ndjson.gz";
+
+    private final CatalogTransfer catalogTransfer;
+
+    @Autowired
+    public CatalogRestController(CatalogTransfer catalogTransfer) {
+        this.catalogTransfer = catalogTransfer;
+    }
+
+    /**
+     * Stream all products, categories and currency rates as gzip'd newline delimited JSON
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/catalog", method = RequestMethod.GET)
+    public void exportCatalog(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(APPLICATION_GZIP);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + FILE_NAME + "\"");
+        catalogTransfer.export(Channels.newChannel(response.getOutputStream()));
+    }
+
+    /**
+     * Import an exported catalog, gzip'd or plain, documents with the same id are replaced
+     * @param request
+     * @return number of imported documents by collection
+     * @throws IOException
+     */
+    @RequestMapping(value = "/catalog", method = RequestMethod.PUT)
+    public ResponseEntity<Map<String, Long>> importCatalog(HttpServletRequest request) throws IOException {
+        try {
+            return new ResponseEntity<>(catalogTransfer.importFrom(Channels.newChannel(request.getInputStream())), HttpStatus.OK);
+        } catch (IllegalArgumentException | ZipException ex) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+}
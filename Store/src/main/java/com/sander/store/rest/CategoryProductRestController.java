@@ -1,42 +1,106 @@
 package com.sander.store.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sander.store.batch.CategoryProductsBatcher;
+import com.sander.store.batch.ProductBatchImporter;
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.cache.CategoryResponseCache;
+import com.sander.store.cache.ProductCache;
+import com.sander.store.changes.ChangeLog;
 import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.CurrencyRateSnapshot;
+import com.sander.store.currency.Money;
+import com.sander.store.exceptions.CurrencyISONotFoundException;
+import com.sander.store.exceptions.InvalidProductException;
+import com.sander.store.exceptions.ProductUpdateException;
+import com.sander.store.exceptions.SubtreeMoveException;
+import com.sander.store.jobs.Job;
+import com.sander.store.jobs.JobService;
 import com.sander.store.pojo.Category;
+import com.sander.store.pojo.CategoryData;
 import com.sander.store.pojo.Product;
+import com.sander.store.pojo.ProductData;
 import com.sander.store.repository.CategoryRepository;
-import com.sander.store.repository.CurrencyRepository;
 import com.sander.store.repository.ProductRepository;
+import com.sander.store.search.ProductSearchIndex;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.json.JacksonJsonParser;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 @RestController
 public class CategoryProductRestController {
 
-    private static final String NAME = "name", CATEGORY = "category", PRODUCTS = "products",
-        ADD = "add", REMOVE = "remove";
+    private static final String ADD = "add", REMOVE = "remove", CURRENCY_RATES_VERSION = "X-Currency-Rates-Version",
+        NEXT_AFTER = "X-Next-After", JSON = "json", NDJSON = "ndjson", PRICE = "price", DESCENDANTS_UPDATED = "X-Descendants-Updated",
+        CATEGORIES_DELETED = "X-Categories-Deleted", CATEGORIES_UPDATED = "X-Categories-Updated", ID = "id",
+        NAME = "name", GZIP = "gzip";
 
+    private static final Set<String> PRODUCT_FIELDS = new HashSet<>(Arrays.asList(
+        NAME, CurrencyConversionProvider.VALUE, CurrencyConversionProvider.CURRENCY_ISO));
+    private static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+    private static final int DEFAULT_PAGE_SIZE = 100, MAX_PAGE_SIZE = 1000, MAX_CHUNK_SIZE = 10000,
+        DEFAULT_SEARCH_LIMIT = 10, MAX_SEARCH_LIMIT = 100;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CategoryProductRestController.class);
     private final ProductRepository productRepository;
     private final CategoryRepository categoryRepository;
-    private final CurrencyRepository currencyRepository;
     private final CurrencyConversionProvider currencyConversionProvider;
-    private final JacksonJsonParser jsonParser = new JacksonJsonParser();
+    private final ObjectMapper objectMapper;
+    private final JobService jobService;
+    private final ProductBatchImporter productBatchImporter;
+    private final CategoryProductsBatcher categoryProductsBatcher;
+    private final ProductCache productCache;
+    private final ProductSearchIndex productSearchIndex;
+    private final CategoryChangeCounter categoryChangeCounter;
+    private final ChangeLog changeLog;
+    private final CategoryResponseCache categoryResponseCache;
 
     @Autowired
     public CategoryProductRestController(
             ProductRepository productRepository,
             CategoryRepository categoryRepository,
-            CurrencyRepository currencyRepository
+            CurrencyConversionProvider currencyConversionProvider,
+            ObjectMapper objectMapper,
+            JobService jobService,
+            ProductBatchImporter productBatchImporter,
+            CategoryProductsBatcher categoryProductsBatcher,
+            ProductCache productCache,
+            ProductSearchIndex productSearchIndex,
+            CategoryChangeCounter categoryChangeCounter,
+            ChangeLog changeLog,
+            CategoryResponseCache categoryResponseCache
     ) {
         this.productRepository = productRepository;
         this.categoryRepository = categoryRepository;
-        this.currencyRepository = currencyRepository;
-        currencyConversionProvider = new CurrencyConversionProvider(currencyRepository);
-        currencyConversionProvider.updateCurrencies();
+        this.currencyConversionProvider = currencyConversionProvider;
+        this.objectMapper = objectMapper;
+        this.jobService = jobService;
+        this.productBatchImporter = productBatchImporter;
+        this.categoryProductsBatcher = categoryProductsBatcher;
+        this.productCache = productCache;
+        this.productSearchIndex = productSearchIndex;
+        this.categoryChangeCounter = categoryChangeCounter;
+        this.changeLog = changeLog;
+        this.categoryResponseCache = categoryResponseCache;
     }
 
     // categories
@@ -44,7 +108,7 @@ public class CategoryProductRestController {
     @RequestMapping(value = "/categories/{categories}", method = RequestMethod.PUT)
     public ResponseEntity<Category> createCategory(
             @PathVariable(value = "categories") String categories,
-            @RequestBody(required = false) String data
+            @RequestBody(required = false) CategoryData data
     ) {
 
         if(categoryRepository.findByCategoryPath(categories) != null)
@@ -58,65 +122,150 @@ public class CategoryProductRestController {
         category.setName(pathParts[pathParts.length - 1]);
         category.setCategoryPath(categories);
 
-        if(data != null) {
-
-            Map<String, Object> dataMap = jsonParser.parseMap(data);
-
-            if (dataMap.containsKey("products")) {
-
-                List<String> products = (List<String>) dataMap.get(PRODUCTS);
-                if (products != null)
-                    category.setProducts(new HashSet<>((List<String>) dataMap.get(PRODUCTS)));
-            }
-        }
+        if(data != null && data.getProducts() != null)
+            category.setProducts(new HashSet<>(data.getProducts()));
 
-        return new ResponseEntity<>(categoryRepository.save(category), HttpStatus.OK);
+        category = categoryRepository.save(category);
+        categoriesChanged();
+        return new ResponseEntity<>(category, HttpStatus.OK);
     }
 
     /**
-     * Return all categories
+     * Return all categories, 304 without reading them if the ETag sent as If-None-Match is current.
+     * The JSON is serialized once per change of the categories, see {@link CategoryResponseCache},
+     * and sent gzip'd if the client accepts it
+     * @param ifNoneMatch
+     * @param acceptEncoding
      * @return
      */
     @RequestMapping(value = "/categories", method = RequestMethod.GET)
-    public ResponseEntity<Collection<Category>> readCategories() {
-        return new ResponseEntity<>(categoryRepository.findAll(), HttpStatus.OK);
+    public ResponseEntity<byte[]> readCategories(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
+    ) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        // either variant tells that the client has the current categories
+        String eTag = categoryChangeCounter.getETag();
+        headers.setETag(gzip ? ETags.gzip(eTag) : eTag);
+        if(ETags.matches(ifNoneMatch, eTag) || ETags.matches(ifNoneMatch, ETags.gzip(eTag)))
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+
+        CategoryResponseCache.Serialized categories = categoryResponseCache.get();
+        byte[] body = gzip ? categories.getGzip() : categories.getIdentity();
+        headers.setETag(gzip ? ETags.gzip(categories.getETag()) : categories.getETag());
+        if(gzip)
+            headers.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+        headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+        headers.setContentLength(body.length);
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
     }
 
     /**
-     *
+     * Return a category and all its subcategories, 304 without reading them if the ETag sent as
+     * If-None-Match is current
      * @param categories
+     * @param ifNoneMatch
      * @return
      */
     @RequestMapping(value = "/categories/{categories}", method = RequestMethod.GET)
     public ResponseEntity<Collection<Category>> readCategoriesAndSubCategories(
-        @PathVariable() String categories
+        @PathVariable() String categories,
+        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
-        List<Category> response = categoryRepository.findByCategoryPathRegex("^" + categories);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(categoryChangeCounter.getETag());
+        if(ETags.matches(ifNoneMatch, headers.getETag()))
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+
+        List<Category> response = categoryRepository.findSubtree(categories);
         if(response == null)
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         else
-            return new ResponseEntity<>(response, HttpStatus.OK);
+            return new ResponseEntity<>(response, headers, HttpStatus.OK);
     }
 
+    /**
+     * Pages of the products associated with a category ordered by id, the id to request the next page
+     * with is set as {@value NEXT_AFTER} header. Product ids are resolved a page at a time, with fields
+     * only the id and the given fields of each product are read and returned. Products are converted
+     * into currencyIso, the version of the rates used is set as {@value CURRENCY_RATES_VERSION} header
+     * @param categories
+     * @param after
+     * @param limit
+     * @param fields comma separated, name, value and currencyIso
+     * @param currencyIso
+     * @return 404 if the category does not exist or has no products at all
+     */
     @RequestMapping(value = "/categories/{categories}/products", method = RequestMethod.GET)
-    public ResponseEntity<Collection<Product>> readAssociatedProducts(@PathVariable String categories) {
+    public ResponseEntity<Collection<?>> readAssociatedProducts(
+            @PathVariable String categories,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "fields", required = false) List<String> fields,
+            @RequestParam(value = "currencyIso", required = false) String currencyIso
+    ) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if(pageSize <= 0 || pageSize > MAX_PAGE_SIZE || (after != null && after.isEmpty()))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 
-        Category category = categoryRepository.findByCategoryPath(categories);
+        if(fields != null && !PRODUCT_FIELDS.containsAll(fields))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 
-        if(category == null)
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        CurrencyRateSnapshot rates = currencyConversionProvider.getSnapshot();
+        HttpHeaders headers = new HttpHeaders();
+        Set<String> read = fields == null ? null : new HashSet<>(fields);
+        if(currencyIso != null) {
+            if(!rates.contains(currencyIso))
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            headers.set(CURRENCY_RATES_VERSION, String.valueOf(rates.getVersion()));
+            if(read != null)
+                read.addAll(Arrays.asList(CurrencyConversionProvider.VALUE, CurrencyConversionProvider.CURRENCY_ISO));
+        }
+        // the value is stored as amount and scale
+        if(read != null && read.remove(CurrencyConversionProvider.VALUE))
+            read.addAll(Arrays.asList(Product.AMOUNT, Product.SCALE));
+
+        // ids of deleted products may still be listed, so the next ids are read until the page is full
+        List<Product> products = new ArrayList<>();
+        String next = after;
+        boolean more = true;
+        while(more && products.size() < pageSize) {
+            int wanted = pageSize - products.size();
+            List<String> ids = categoryRepository.findProductIds(categories, next, wanted);
+            if(ids == null)
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            more = ids.size() == wanted;
+            if(ids.isEmpty())
+                break;
+            next = ids.get(ids.size() - 1);
+            products.addAll(productRepository.findByIds(ids, read));
+        }
 
-        Iterable<Product> all = productRepository.findAll(category.getProducts());
-        if(!all.iterator().hasNext())
+        if(after == null && products.isEmpty() && !more)
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
-        List<Product> target = new ArrayList<>();
-        all.forEach(target::add);
-        return new ResponseEntity<>(target, HttpStatus.OK);
+        if(more)
+            headers.set(NEXT_AFTER, next);
+
+        if(currencyIso != null)
+            products.forEach(p -> currencyConversionProvider.adaptCurrency(currencyIso, p, rates));
+
+        if(fields == null)
+            return new ResponseEntity<>(products, headers, HttpStatus.OK);
+
+        List<Map<String, Object>> projected = products.stream()
+                .map(p -> project(p, fields))
+                .collect(Collectors.toList());
+        return new ResponseEntity<>(projected, headers, HttpStatus.OK);
     }
 
     /**
-     * Update name of category, or description (if available), etc.
+     * Update name of category, or description (if available), etc. Renaming moves all subcategories
+     * along, the number of moved subcategories is returned as {@value DESCENDANTS_UPDATED} header,
+     * also if the move failed part way. The category keeps its path then and the rename can be repeated
      * TODO also by id
      * @param categories
      * @param data
@@ -125,71 +274,84 @@ public class CategoryProductRestController {
     @RequestMapping(value = "/categories/{categories}", method = RequestMethod.POST)
     public ResponseEntity<Category> updateCategoryCategoryPath(
             @PathVariable(value = "categories") String categories,
-            @RequestBody() String data
+            @RequestBody() CategoryData data
     ) {
         Category category = categoryRepository.findByCategoryPath(categories);
 
         if(category == null)
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
-        Map<String, Object> dataMap = jsonParser.parseMap(data);
-
-        if(dataMap.containsKey(NAME)) {
-            String newName = (String) dataMap.get(NAME);
-            if(newName != null) {
-                String oldName = category.getName();
-                category.setName(newName);
-                categoryRepository.save(category);
-                List<Category> subCategories = categoryRepository.findByCategoryPathRegex("^" + categories);
-                subCategories.stream().forEach(sub -> sub.updateCategoryPath(oldName, newName));
-                categoryRepository.save(subCategories);
+        HttpHeaders headers = new HttpHeaders();
+        String newName = data.getName();
+
+        if(newName != null) {
+            if(newName.isEmpty() || newName.contains(Category.SEPARATOR))
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            String newPath = categories.substring(0, categories.lastIndexOf(Category.SEPARATOR) + 1) + newName;
+            long descendants = 0;
+            if(!newPath.equals(categories)) {
+                if(categoryRepository.findByCategoryPath(newPath) != null)
+                    return new ResponseEntity<>(HttpStatus.CONFLICT);
+                try {
+                    descendants = categoryRepository.moveSubtree(categories, newPath, newName);
+                } catch (SubtreeMoveException ex) {
+                    LOGGER.error(ex.getMessage(), ex);
+                    categoriesChanged();
+                    headers.set(DESCENDANTS_UPDATED, String.valueOf(ex.getDescendants()));
+                    return new ResponseEntity<>(headers, HttpStatus.INTERNAL_SERVER_ERROR);
+                }
+                categoriesChanged();
             }
+            headers.set(DESCENDANTS_UPDATED, String.valueOf(descendants));
         }
 
-        return new ResponseEntity<>(categoryRepository.findOne(category.getId()), HttpStatus.OK);
+        return new ResponseEntity<>(categoryRepository.findOne(category.getId()), headers, HttpStatus.OK);
     }
 
     /**
-     * Update products of distinct category using product path
+     * Update products of distinct category using product path, products are added or removed atomically
+     * without rewriting the category. Concurrent changes of the same category may be coalesced into one
+     * write, see {@link CategoryProductsBatcher}. Returns the number of matched and modified categories
+     * or, if full is set, the updated category
      * TODO also by id
      * @param categories
+     * @param action
+     * @param full
      * @param data
      * @return
      */
     @RequestMapping(value = "/categories/{categories}/products/{action}", method = RequestMethod.POST)
-    public ResponseEntity<Category> updateCategoryProducts(
+    public ResponseEntity<?> updateCategoryProducts(
             @PathVariable(value = "categories") String categories,
             @PathVariable(value = "action") String action,
-            @RequestBody() String data
+            @RequestParam(value = "full", required = false, defaultValue = "false") boolean full,
+            @RequestBody() CategoryData data
     ) {
-        Category category = categoryRepository.findByCategoryPath(categories);
+        if(!action.equals(ADD) && !action.equals(REMOVE))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 
-        if(categories == null)
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        List<String> products = data.getProducts();
+        if(products == null)
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 
-        Map<String, Object> dataMap = jsonParser.parseMap(data);
-        List<String> products = null;
+        UpdateResult result = action.equals(ADD) ?
+                categoryProductsBatcher.updateProducts(categories, products, Collections.emptyList()) :
+                categoryProductsBatcher.updateProducts(categories, Collections.emptyList(), products);
+        if(result.getModified() > 0)
+            categoriesChanged();
 
-        if(!dataMap.containsKey(PRODUCTS)) {
-           return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        } else {
-            products = (List<String>) dataMap.get(PRODUCTS);
-            if(products == null)
-                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        }
+        if(result.getMatched() == 0)
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
-        if(action.equals(ADD)) {
-            category.addProducts(products);
-        } else if(action.equals(REMOVE)) {
-            category.removeProducts(products);
-        } else
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        if(full)
+            return new ResponseEntity<>(categoryRepository.findByCategoryPath(categories), HttpStatus.OK);
 
-        return new ResponseEntity<>(categoryRepository.save(category), HttpStatus.OK);
+        return new ResponseEntity<>(result, HttpStatus.OK);
     }
 
     /**
-     * Delete distinct category by using category path
+     * Delete distinct category and all its subcategories by using category path, the number of
+     * deleted categories is returned as {@value CATEGORIES_DELETED} header
      * TODO delete also by id
      * @return
      */
@@ -202,13 +364,37 @@ public class CategoryProductRestController {
         if(category == null)
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
-        // delete sub categories
-        List<Category> subCategories = categoryRepository.findByCategoryPathRegex("^" + category.getCategoryPath());
-        subCategories.stream().forEach(cat -> categoryRepository.delete(cat.getId()));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(CATEGORIES_DELETED, String.valueOf(categoryRepository.deleteSubtree(categories)));
+        categoriesChanged();
+        return new ResponseEntity<>(category, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Delete distinct category and all its subcategories in the background, the returned job
+     * can be polled at /jobs/{id}
+     * @return
+     */
+    @RequestMapping(value = "/categories/{categories}", method = RequestMethod.DELETE, params = "async=true")
+    public ResponseEntity<Job> deleteCategoryAsync(@PathVariable(value = "categories") String categories) {
+
+        if(categoryRepository.findByCategoryPath(categories) == null)
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+        Job job;
+        try {
+            job = jobService.submit("delete category " + categories, () -> {
+                long deleted = categoryRepository.deleteSubtree(categories);
+                categoriesChanged();
+                return deleted;
+            });
+        } catch (RejectedExecutionException ex) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
 
-        // delete category
-        categoryRepository.delete(category);
-        return new ResponseEntity<>(category, HttpStatus.OK);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(URI.create("/jobs/" + job.getId()));
+        return new ResponseEntity<>(job, headers, HttpStatus.ACCEPTED);
     }
 
     // products
@@ -219,130 +405,350 @@ public class CategoryProductRestController {
      * @return
      */
     @RequestMapping(value = "/products", method = RequestMethod.PUT)
-    public ResponseEntity<Product> createProduct(@RequestBody() String data) {
+    public ResponseEntity<Product> createProduct(@RequestBody() ProductData data) {
+        return createProduct(data, Runnable::run);
+    }
 
-        Map<String, Object> dataMap = jsonParser.parseMap(data);
+    /**
+     * Create a distinct product, the id is assigned up front so that the product can be added to its
+     * category on the given executor while the product is inserted
+     * @param data
+     * @param executor runs the category update, e.g. in parallel to the insert
+     * @return
+     */
+    ResponseEntity<Product> createProduct(ProductData data, Executor executor) {
 
-        String name, currencyIso = null;
-        double value;
+        Product product;
 
-        if(!dataMap.containsKey(NAME))
+        try {
+            product = Product.fromData(data, currencyConversionProvider.getSnapshot());
+        } catch (InvalidProductException ex) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        else {
-            name = (String) dataMap.get(NAME);
-            if(name == null)
-                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
 
-        if(!dataMap.containsKey(CurrencyConversionProvider.VALUE))
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        else {
-            value = (double) dataMap.get(CurrencyConversionProvider.VALUE);
-            if(value <= 0)
-                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        String id = ObjectId.get().toHexString();
+        product.setId(id);
+
+        CompletableFuture<Long> membership = data.getCategory() == null ?
+                CompletableFuture.completedFuture(0L) :
+                CompletableFuture.supplyAsync(() -> categoryRepository.addProductsById(
+                        Collections.singletonMap(data.getCategory(), Collections.singletonList(id))), executor);
+
+        try {
+            productRepository.save(product);
+        } catch (RuntimeException ex) {
+            membership.thenRun(() -> {
+                categoryRepository.removeProductFromAll(id);
+                categoriesChanged();
+            });
+            throw ex;
         }
+        productCache.put(product);
+        productSearchIndex.index(product);
+        changeLog.publish(ChangeLog.Type.PRODUCT, id);
 
-        if(!dataMap.containsKey(CurrencyConversionProvider.CURRENCY_ISO)) {
-           currencyIso = CurrencyConversionProvider.EUR;
-        } else {
-            currencyIso = ((String) dataMap.get(CurrencyConversionProvider.CURRENCY_ISO));
-            if(currencyIso == null)
-                currencyIso = CurrencyConversionProvider.EUR;
-            else
-                if(!currencyIso.equals(CurrencyConversionProvider.EUR) && !currencyRepository.exists(currencyIso))
-                    return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        }
-
-        Product product = productRepository.save(Product.newProduct(name, value, currencyIso));
+        if(membership.join() > 0)
+            categoriesChanged();
+        return new ResponseEntity<>(product, HttpStatus.OK);
+    }
 
-        if(dataMap.containsKey(CATEGORY)) {
-            String categoryId = (String) dataMap.get(CATEGORY);
-            if(categoryId != null) {
-                Category category = categoryRepository.findOne(categoryId);
-                if(category != null) {
-                    category.addProduct(product.getId());
-                    categoryRepository.save(category);
-                }
-            }
+    /**
+     * Create many products from newline delimited JSON, one product per line. Lines are validated like
+     * single created products and inserted in chunks, the response contains one result per line
+     * as newline delimited JSON
+     * @param chunkSize max number of products per bulk write
+     * @param ordered stop inserting a chunk at the first failure
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/products/batch", method = RequestMethod.PUT)
+    public void createProducts(
+            @RequestParam(value = "chunkSize", required = false, defaultValue = "1000") int chunkSize,
+            @RequestParam(value = "ordered", required = false, defaultValue = "false") boolean ordered,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+
+        if(chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            response.sendError(HttpStatus.BAD_REQUEST.value());
+            return;
         }
 
-        return new ResponseEntity<>(product, HttpStatus.OK);
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(APPLICATION_NDJSON.toString());
+        productBatchImporter.importProducts(request.getInputStream(), response.getOutputStream(), chunkSize, ordered);
     }
 
     /**
-     * Get projects using id or name in combination with and without currencyIso
+     * Get projects using id or name in combination with and without currencyIso, converted products
+     * carry the version of the currency rates used inside the {@value CURRENCY_RATES_VERSION} header.
+     * Without id and name all products are returned, pages of products ordered by id are returned if
+     * after or limit is given, the id to request the next page with is set as {@value NEXT_AFTER} header.
+     * Large catalogs are better read page by page or streamed, see stream.
+     * With minPrice, maxPrice or sort products within the price range given in currencyIso (EUR by
+     * default) are returned ordered by price, cheapest first or most expensive first with sort -price
+     * A single product requested by id carries an ETag, 304 is returned if it is sent as If-None-Match
      * @param id
      * @param name
      * @param currencyIso
+     * @param after
+     * @param limit
+     * @param minPrice
+     * @param maxPrice
+     * @param sort price or -price
+     * @param ifNoneMatch
      * @return
      */
     @RequestMapping(value = "/products", method = RequestMethod.GET)
     public ResponseEntity<Collection<Product>> readProducts(
             @RequestParam(value = "id", required = false) String id,
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "currencyIso", required = false) String currencyIso
+            @RequestParam(value = "currencyIso", required = false) String currencyIso,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "minPrice", required = false) Double minPrice,
+            @RequestParam(value = "maxPrice", required = false) Double maxPrice,
+            @RequestParam(value = "sort", required = false) String sort,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
     ) {
-        if(id == null && name == null) {
+        CurrencyRateSnapshot rates = currencyConversionProvider.getSnapshot();
+        HttpHeaders headers = new HttpHeaders();
+        if(currencyIso != null)
+            headers.set(CURRENCY_RATES_VERSION, String.valueOf(rates.getVersion()));
+
+        if(minPrice != null || maxPrice != null || sort != null) {
+
+            if(id != null || name != null || after != null)
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+            Sort.Direction direction;
+            if(sort == null || sort.equals(PRICE))
+                direction = Sort.Direction.ASC;
+            else if(sort.equals("-" + PRICE))
+                direction = Sort.Direction.DESC;
+            else
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+            if(pageSize <= 0 || pageSize > MAX_PAGE_SIZE)
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+            String priceCurrency = currencyIso == null ? CurrencyConversionProvider.EUR : currencyIso;
+            if(!rates.contains(priceCurrency) || (minPrice != null && maxPrice != null && minPrice > maxPrice))
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+            List<Product> products;
+            try {
+                // bounds are converted like prices, so a product priced exactly at a bound is included
+                int scale = rates.getScale(priceCurrency);
+                products = productRepository.findByBasePrice(
+                        minPrice == null ? null : rates.convert(Money.toMinorUnits(minPrice, scale), priceCurrency, CurrencyConversionProvider.EUR),
+                        maxPrice == null ? null : rates.convert(Money.toMinorUnits(maxPrice, scale), priceCurrency, CurrencyConversionProvider.EUR),
+                        direction,
+                        pageSize
+                );
+            } catch (CurrencyISONotFoundException | ArithmeticException | NumberFormatException ex) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+
+            if(currencyIso != null)
+                products.stream().forEach(p -> currencyConversionProvider.adaptCurrency(currencyIso, p, rates));
+
+            return new ResponseEntity<>(products, headers, HttpStatus.OK);
+        }
+
+        if(id == null && name == null && (after != null || limit != null)) {
+
+            if(after != null && !ObjectId.isValid(after))
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+            if(pageSize <= 0 || pageSize > MAX_PAGE_SIZE)
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+            List<Product> products = productRepository.findPage(after, pageSize);
+
+            if(currencyIso != null)
+                products.stream().forEach(p -> currencyConversionProvider.adaptCurrency(currencyIso, p, rates));
+
+            if(products.size() == pageSize)
+                headers.set(NEXT_AFTER, products.get(products.size() - 1).getId());
+
+            return new ResponseEntity<>(products, headers, HttpStatus.OK);
+        }
+        else if(id == null && name == null) {
             List<Product> products = productRepository.findAll();
 
             if(currencyIso != null)
-                products.stream().forEach(p -> currencyConversionProvider.adaptCurrency(currencyIso, p));
+                products.stream().forEach(p -> currencyConversionProvider.adaptCurrency(currencyIso, p, rates));
 
-            return new ResponseEntity<>(products, HttpStatus.OK);
+            return new ResponseEntity<>(products, headers, HttpStatus.OK);
         }
         else if(id != null) {
-            Product product = productRepository.findOne(id);
+            Product product = productCache.findById(id);
+
+            if(product == null)
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+            headers.setETag(eTag(product, currencyIso, rates));
+            if(ETags.matches(ifNoneMatch, headers.getETag()))
+                return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
 
             if(currencyIso != null)
-                currencyConversionProvider.adaptCurrency(currencyIso, product);
+                currencyConversionProvider.adaptCurrency(currencyIso, product, rates);
 
-            return product == null ?
-                    new ResponseEntity<>(HttpStatus.NOT_FOUND) :
-                    new ResponseEntity<>(Arrays.asList(product), HttpStatus.OK);
+            return new ResponseEntity<>(Arrays.asList(product), headers, HttpStatus.OK);
         } else {
 
-            Collection<Product> products = productRepository.findByName(name);
+            Collection<Product> products = productCache.findByName(name);
+
+            if(products.isEmpty())
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
             if(currencyIso != null)
-                products.stream().forEach(p -> currencyConversionProvider.adaptCurrency(currencyIso, p));
+                products.stream().forEach(p -> currencyConversionProvider.adaptCurrency(currencyIso, p, rates));
+
+            return new ResponseEntity<>(products, headers, HttpStatus.OK);
+        }
+    }
+
+    /**
+     * Search products by name as you type, all terms of q have to match a word of the name or be
+     * its beginning. Returns the best matches first, an empty list if nothing matches
+     * @param q
+     * @param limit max number of results, {@value DEFAULT_SEARCH_LIMIT} by default
+     * @return
+     */
+    @RequestMapping(value = "/products/search", method = RequestMethod.GET)
+    public ResponseEntity<Collection<Product>> searchProducts(
+            @RequestParam(value = "q") String q,
+            @RequestParam(value = "limit", required = false) Integer limit
+    ) {
+        int size = limit == null ? DEFAULT_SEARCH_LIMIT : limit;
+        if(q.trim().isEmpty() || size < 1 || size > MAX_SEARCH_LIMIT)
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 
-            return products == null || products.isEmpty() ?
-                    new ResponseEntity<>(HttpStatus.NOT_FOUND) :
-                    new ResponseEntity<>(products, HttpStatus.OK);
+        List<Product> products = new ArrayList<>(size);
+        for(String id : productSearchIndex.search(q, size)) {
+            Product product = productCache.findById(id);
+            if(product != null)
+                products.add(product);
         }
+
+        return new ResponseEntity<>(products, HttpStatus.OK);
+    }
+
+    /**
+     * Stream all products ordered by id directly from the database as JSON array or, if stream is
+     * {@value NDJSON}, as newline delimited JSON. Memory usage does not depend on the number of products
+     * @param stream json or ndjson
+     * @param currencyIso
+     * @param after
+     * @return 400 if stream is neither json nor ndjson
+     */
+    @RequestMapping(value = "/products", method = RequestMethod.GET, params = "stream")
+    public ResponseEntity<StreamingResponseBody> streamProducts(
+            @RequestParam(value = "stream") String stream,
+            @RequestParam(value = "currencyIso", required = false) String currencyIso,
+            @RequestParam(value = "after", required = false) String after
+    ) {
+        if((after != null && !ObjectId.isValid(after)) || !(JSON.equalsIgnoreCase(stream) || NDJSON.equalsIgnoreCase(stream)))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+        boolean ndjson = NDJSON.equalsIgnoreCase(stream);
+        CurrencyRateSnapshot rates = currencyConversionProvider.getSnapshot();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON_UTF8);
+        if(currencyIso != null)
+            headers.set(CURRENCY_RATES_VERSION, String.valueOf(rates.getVersion()));
+
+        return new ResponseEntity<>(new ProductStreamingResponseBody(
+                () -> productRepository.streamAll(after),
+                p -> {
+                    if(currencyIso != null)
+                        currencyConversionProvider.adaptCurrency(currencyIso, p, rates);
+                },
+                objectMapper,
+                ndjson
+        ), headers, HttpStatus.OK);
     }
 
     /**
      * Update a distinct product, updating name and value is allowed, updating currencyIso is currently
-     * not supported
+     * not supported. Only the sent fields are set, conditionally on the version if the update is based
+     * on a known one, either by an If-Match header with an ETag of the product or by version inside
+     * the body
      * @param data
-     * @return
+     * @param ifMatch
+     * @return updated product, 412 if the If-Match header does not match, 409 if the version inside the
+     * body is not the current one
      */
     @RequestMapping(value = "/products", method = RequestMethod.POST)
     public ResponseEntity<Product> updateProduct(
             @RequestParam(value = "id") String id,
-            @RequestBody() String data) {
+            @RequestBody() ProductData data,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
 
         if(id == null)
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 
-        Product product = productRepository.findOne(id);
+        // the currency can not be changed, so a cached product is enough to compute the base price
+        Product product = productCache.findById(id);
 
         if(product == null)
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
-       try {
-           product.update(jsonParser.parseMap(data));
-       } catch(Exception ex) {
-           return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-       }
+        Long version = data.getVersion();
+        boolean precondition = ifMatch != null && !ETags.any(ifMatch);
+        if(precondition) {
+            Long matched = ETags.productVersion(ifMatch, id);
+            if(matched == null || (version != null && !version.equals(matched)))
+                return new ResponseEntity<>(HttpStatus.PRECONDITION_FAILED);
+            version = matched;
+        }
+
+        Map<String, Object> changes;
+        try {
+            changes = product.changes(data, currencyConversionProvider.getSnapshot());
+        } catch(ProductUpdateException ex) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        Product updated = productRepository.updateFields(id, version, changes);
+
+        if(updated == null) {
+            // deleted or changed since it was cached
+            productCache.invalidate(id);
+            if(!productRepository.exists(id))
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            return new ResponseEntity<>(precondition ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT);
+        }
 
-       productRepository.save(product);
-       return new ResponseEntity<>(product, HttpStatus.OK);
+        productCache.put(updated);
+        productSearchIndex.index(updated);
+        changeLog.publish(ChangeLog.Type.PRODUCT, id);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(eTag(updated, null, null));
+        return new ResponseEntity<>(updated, headers, HttpStatus.OK);
     }
 
     /**
-     * Delete a distinct product
+     * Get ids of all categories a distinct product is associated with
+     * @param id
+     * @return
+     */
+    @RequestMapping(value = "/products/categories", method = RequestMethod.GET)
+    public ResponseEntity<Collection<String>> readProductCategories(@RequestParam(value = "id") String id) {
+        if(!productRepository.exists(id))
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        return new ResponseEntity<>(categoryRepository.findIdsByProduct(id), HttpStatus.OK);
+    }
+
+    /**
+     * Delete a distinct product and remove it from all categories, the number of updated categories
+     * is returned as {@value CATEGORIES_UPDATED} header
      * @param id
      * @return
      */
@@ -353,10 +759,80 @@ public class CategoryProductRestController {
         else
             return new ResponseEntity<Product>(HttpStatus.NOT_FOUND);
 
-        Collection<Category> associatedCategories = categoryRepository.products(id);
-        if(associatedCategories != null)
-            associatedCategories.stream().forEach(cat -> cat.removeProduct(id));
+        productCache.delete(id);
+        productSearchIndex.remove(id);
+        changeLog.publish(ChangeLog.Type.PRODUCT, id);
+
+        HttpHeaders headers = new HttpHeaders();
+        long updated = categoryRepository.removeProductFromAll(id);
+        if(updated > 0)
+            categoriesChanged();
+        headers.set(CATEGORIES_UPDATED, String.valueOf(updated));
+        return new ResponseEntity<Product>(headers, HttpStatus.OK);
+    }
+
+    /**
+     * @param acceptEncoding header value
+     * @return true unless gzip is missing or explicitly refused with q=0
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if(acceptEncoding == null)
+            return false;
+        for(String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if(!parts[0].trim().equalsIgnoreCase(GZIP))
+                continue;
+            for(int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].replace(" ", "");
+                if(parameter.startsWith("q=") && parameter.matches("q=0(\\.0*)?"))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Categories have been written, here and for the other nodes
+     */
+    private void categoriesChanged() {
+        categoryChangeCounter.increment();
+        changeLog.publish(ChangeLog.Type.CATEGORY);
+    }
 
-        return new ResponseEntity<Product>(HttpStatus.OK);
+    /**
+     * Id and the given fields of a product
+     */
+    private static Map<String, Object> project(Product product, Collection<String> fields) {
+        Map<String, Object> projected = new LinkedHashMap<>();
+        projected.put(ID, product.getId());
+        for(String field : fields) {
+            if(field.equals(NAME))
+                projected.put(NAME, product.getName());
+            else if(field.equals(CurrencyConversionProvider.VALUE))
+                projected.put(CurrencyConversionProvider.VALUE, product.getValue());
+            else if(field.equals(CurrencyConversionProvider.CURRENCY_ISO))
+                projected.put(CurrencyConversionProvider.CURRENCY_ISO, product.getCurrencyIso());
+        }
+        return projected;
+    }
+
+    /**
+     * Strong ETag of a single product, built from its version and, if it is converted, the currency
+     * and the version of the rates
+     */
+    private static String eTag(Product product, String currencyIso, CurrencyRateSnapshot rates) {
+        StringBuilder eTag = new StringBuilder("\"").append(product.getId()).append('-').append(product.getVersion());
+        if(currencyIso != null)
+            eTag.append('-').append(currencyIso).append('-').append(rates.getVersion());
+        return eTag.append('"').toString();
+    }
+
+    /**
+     * Concurrent writes of a whole product or category are reported as conflict
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Void> handleConflict() {
+        return new ResponseEntity<>(HttpStatus.CONFLICT);
     }
- }
+ }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package com.sander.store.rest;
+
+/**
+ * Evaluation of If-None-Match and If-Match request headers
+ */
+final class ETags {
+
+    private static final String ANY = "*", WEAK = "W/";
+
+    private ETags() {
+    }
+
+    /**
+     * @param ifNoneMatch header value, may list several ETags
+     * @param etag current ETag of the resource
+     * @return true if the client already has the current representation
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals(ANY))
+                return true;
+            if (candidate.startsWith(WEAK))
+                candidate = candidate.substring(WEAK.length());
+            if (candidate.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param etag strong ETag of the identity representation
+     * @return strong ETag of the gzip'd representation
+     */
+    static String gzip(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * @param ifMatch header value
+     * @return true if any current representation is accepted
+     */
+    static boolean any(String ifMatch) {
+        return ifMatch != null && ifMatch.trim().equals(ANY);
+    }
+
+    /**
+     * Version of a product inside the strong ETags of an If-Match header, with or without currency
+     *
+     * @param ifMatch header value, may list several ETags
+     * @param id product id
+     * @return version of the first ETag of the product, null if there is none
+     */
+    static Long productVersion(String ifMatch, String id) {
+        if (ifMatch == null)
+            return null;
+        String prefix = "\"" + id + "-";
+        for (String candidate : ifMatch.split(",")) {
+            candidate = candidate.trim();
+            if (!candidate.startsWith(prefix) || !candidate.endsWith("\"") || candidate.length() <= prefix.length())
+                continue;
+            String version = candidate.substring(prefix.length(), candidate.length() - 1);
+            int end = version.indexOf('-');
+            try {
+                return Long.valueOf(end < 0 ? version : version.substring(0, end));
+            } catch (NumberFormatException ex) {
+                // not an ETag of this product
+            }
+        }
+        return null;
+    }
+}
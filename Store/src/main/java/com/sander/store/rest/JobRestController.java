@@ -0,0 +1,35 @@
+package com.sander.store.rest;
+
+import com.sander.store.jobs.Job;
+import com.sander.store.jobs.JobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class JobRestController {
+
+    private final JobService jobService;
+
+    @Autowired
+    public JobRestController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    /**
+     * Poll the state of an asynchronous operation
+     * @param id
+     * @return
+     */
+    @RequestMapping(value = "/jobs/{id}", method = RequestMethod.GET)
+    public ResponseEntity<Job> readJob(@PathVariable(value = "id") String id) {
+        Job job = jobService.find(id);
+        return job == null ?
+                new ResponseEntity<>(HttpStatus.NOT_FOUND) :
+                new ResponseEntity<>(job, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,55 @@
+package com.sander.store.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Request bodies sent without Content-Type are read as JSON, as before they were bound to typed
+ * objects. Spring treats them as application/octet-stream, so a Jackson converter for that type is
+ * added after all others, byte arrays and strings are still read by their own converters
+ */
+@Configuration
+public class JsonBodyConfiguration extends WebMvcConfigurerAdapter {
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public JsonBodyConfiguration(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new UntypedJsonReader(objectMapper));
+    }
+
+    /**
+     * Only reads, responses are never written as application/octet-stream
+     */
+    private static class UntypedJsonReader extends MappingJackson2HttpMessageConverter {
+
+        private UntypedJsonReader(ObjectMapper objectMapper) {
+            super(objectMapper);
+            setSupportedMediaTypes(Collections.singletonList(MediaType.APPLICATION_OCTET_STREAM));
+        }
+
+        @Override
+        public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+            return false;
+        }
+
+        @Override
+        public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+            return false;
+        }
+    }
+}
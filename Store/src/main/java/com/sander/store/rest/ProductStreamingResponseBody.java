@@ -0,0 +1,70 @@
+package com.sander.store.rest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sander.store.pojo.Product;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Writes products straight from a database cursor to the response, either as one JSON array
+ * or as newline delimited JSON, so memory usage does not depend on the number of products
+ */
+class ProductStreamingResponseBody implements StreamingResponseBody {
+
+    private final Supplier<CloseableIterator<Product>> products;
+    private final Consumer<Product> adapter;
+    private final ObjectWriter writer;
+    private final boolean ndjson;
+
+    /**
+     * @param products opens the cursor, invoked once the response is written
+     * @param adapter applied to every product before it is written, e.g. currency conversion
+     * @param objectMapper
+     * @param ndjson true for newline delimited JSON, false for a JSON array
+     */
+    ProductStreamingResponseBody(
+            Supplier<CloseableIterator<Product>> products,
+            Consumer<Product> adapter,
+            ObjectMapper objectMapper,
+            boolean ndjson
+    ) {
+        this.products = products;
+        this.adapter = adapter;
+        this.writer = objectMapper.writerFor(Product.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.ndjson = ndjson;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+
+        try (CloseableIterator<Product> iterator = products.get();
+             JsonGenerator generator = writer.getFactory().createGenerator(outputStream)) {
+
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            if(ndjson)
+                generator.setRootValueSeparator(null);
+            else
+                generator.writeStartArray();
+
+            while(iterator.hasNext()) {
+                Product product = iterator.next();
+                adapter.accept(product);
+                writer.writeValue(generator, product);
+                if(ndjson)
+                    generator.writeRaw('\n');
+            }
+
+            if(!ndjson)
+                generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.sander.store.rest;
+
+/**
+ * Describes the outcome of a partial update, the number of matched and actually modified documents
+ */
+public class UpdateResult {
+
+    private final long matched, modified;
+
+    public UpdateResult(long matched, long modified) {
+        this.matched = matched;
+        this.modified = modified;
+    }
+
+    public long getMatched() {
+        return matched;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateResult{" +
+                "matched=" + matched +
+                ", modified=" + modified +
+                '}';
+    }
+}
@@ -0,0 +1,259 @@
+package com.sander.store.search;
+
+import com.sander.store.pojo.Product;
+import com.sander.store.repository.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-process inverted index over product names for search as you type. Names are split into
+ * lower case tokens, the tokens are kept sorted so every query term matches all tokens it is a
+ * prefix of. All terms of a query have to match, exact token matches rank above prefix matches
+ * and names starting with the query rank above the rest.
+ *
+ * The index is built from the database once the application is ready and kept up to date by
+ * the writing endpoints. Writes are serialized, searches run concurrently to them
+ */
+@Component
+public class ProductSearchIndex implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final double EXACT = 2, STARTS_WITH_QUERY = 1;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ProductSearchIndex.class);
+    private final ProductRepository productRepository;
+    private final ConcurrentSkipListMap<String, Set<String>> postings = new ConcurrentSkipListMap<>();
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+
+    // ids removed while the index is built, so a stale read of the database does not bring them back
+    private Set<String> removedWhileBuilding;
+
+    @Autowired
+    public ProductSearchIndex(ProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        try {
+            build();
+        } catch (Exception ex) {
+            LOGGER.error("Could not build product search index", ex);
+        }
+    }
+
+    /**
+     * Index all stored products, products indexed in the meantime with a newer version are kept
+     */
+    public void build() {
+
+        synchronized (this) {
+            removedWhileBuilding = new HashSet<>();
+        }
+
+        long indexed = 0;
+        try (CloseableIterator<Product> products = productRepository.streamAll(null)) {
+            while (products.hasNext()) {
+                Product product = products.next();
+                synchronized (this) {
+                    if (!removedWhileBuilding.contains(product.getId()))
+                        index(product);
+                }
+                indexed++;
+            }
+        } finally {
+            synchronized (this) {
+                removedWhileBuilding = null;
+            }
+        }
+
+        LOGGER.info("Indexed " + indexed + " product names");
+    }
+
+    /**
+     * Add or update a product, an older version than the indexed one is ignored
+     * @param product
+     */
+    public synchronized void index(Product product) {
+
+        Document current = documents.get(product.getId());
+        Document next = new Document(product);
+        if (current != null) {
+            if (current.version > next.version)
+                return;
+            unlink(product.getId(), current);
+        }
+
+        documents.put(product.getId(), next);
+        for (String token : next.tokens)
+            postings.computeIfAbsent(token, t -> ConcurrentHashMap.newKeySet()).add(product.getId());
+    }
+
+    /**
+     * @param id of a deleted product
+     */
+    public synchronized void remove(String id) {
+        if (removedWhileBuilding != null)
+            removedWhileBuilding.add(id);
+        Document current = documents.remove(id);
+        if (current != null)
+            unlink(id, current);
+    }
+
+    /**
+     * Drop all products, e.g. after they have been removed in bulk
+     */
+    public synchronized void clear() {
+        documents.clear();
+        postings.clear();
+    }
+
+    /**
+     * @param query one or more terms, the last one usually incomplete
+     * @param limit max number of results
+     * @return ids of the best matching products, best match first
+     */
+    public List<String> search(String query, int limit) {
+
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit < 1)
+            return new ArrayList<>();
+
+        // the longest term is usually the most selective one, the others are checked per candidate
+        terms.sort(Comparator.comparingInt(String::length).reversed());
+        String first = terms.get(0);
+
+        Map<String, Double> scores = new HashMap<>();
+        for (Map.Entry<String, Set<String>> posting : prefixed(first).entrySet()) {
+            double score = score(first, posting.getKey());
+            for (String id : posting.getValue())
+                scores.merge(id, score, Math::max);
+        }
+
+        String normalizedQuery = query.trim().toLowerCase(Locale.ROOT);
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, Comparator.reverseOrder());
+
+        candidates:
+        for (Map.Entry<String, Double> candidate : scores.entrySet()) {
+
+            Document document = documents.get(candidate.getKey());
+            if (document == null)
+                continue;
+
+            double score = candidate.getValue();
+            for (String term : terms.subList(1, terms.size())) {
+                double termScore = 0;
+                for (String token : document.tokens)
+                    if (token.startsWith(term))
+                        termScore = Math.max(termScore, score(term, token));
+                if (termScore == 0)
+                    continue candidates;
+                score += termScore;
+            }
+            if (document.normalizedName.startsWith(normalizedQuery))
+                score += STARTS_WITH_QUERY;
+
+            best.add(new Match(candidate.getKey(), document.normalizedName, score));
+            if (best.size() > limit)
+                best.poll();
+        }
+
+        List<String> ids = new ArrayList<>(best.size());
+        while (!best.isEmpty())
+            ids.add(best.poll().id);
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    /**
+     * @return number of indexed products
+     */
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * @param text
+     * @return distinct lower case words and numbers of text, in order of appearance
+     */
+    static List<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text != null)
+            for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT)))
+                if (!token.isEmpty())
+                    tokens.add(token);
+        return new ArrayList<>(tokens);
+    }
+
+    private SortedMap<String, Set<String>> prefixed(String prefix) {
+        return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Exact matches score highest, prefixes by the share of the token they cover
+     */
+    private static double score(String term, String token) {
+        return term.length() == token.length() ? EXACT : (double) term.length() / token.length();
+    }
+
+    private void unlink(String id, Document document) {
+        for (String token : document.tokens) {
+            Set<String> ids = postings.get(token);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty())
+                    postings.remove(token);
+            }
+        }
+    }
+
+    private static class Document {
+
+        private final List<String> tokens;
+        private final String normalizedName;
+        private final long version;
+
+        private Document(Product product) {
+            this.tokens = tokenize(product.getName());
+            this.normalizedName = product.getName() == null ? "" : product.getName().toLowerCase(Locale.ROOT);
+            this.version = product.getVersion() == null ? 0 : product.getVersion();
+        }
+    }
+
+    /**
+     * Orders by score, then shorter names first and finally by name and id, so results are stable
+     */
+    private static class Match implements Comparable<Match> {
+
+        private final String id, name;
+        private final double score;
+
+        private Match(String id, String name, double score) {
+            this.id = id;
+            this.name = name;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            int result = Double.compare(other.score, score);
+            if (result == 0)
+                result = Integer.compare(name.length(), other.name.length());
+            if (result == 0)
+                result = name.compareTo(other.name);
+            if (result == 0)
+                result = id.compareTo(other.id);
+            return result;
+        }
+    }
+}
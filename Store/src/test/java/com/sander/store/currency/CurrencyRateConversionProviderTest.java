@@ -1,20 +1,25 @@
 package com.sander.store.currency;
 
 import com.sander.store.StoreApplication;
+import com.sander.store.changes.ChangeLog;
 import com.sander.store.exceptions.CurrencyISONotFoundException;
 import com.sander.store.pojo.Product;
 import com.sander.store.repository.CurrencyRepository;
+import com.sander.store.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.context.web.WebAppConfiguration;
 import static org.junit.Assert.*;
 
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = StoreApplication.class)
@@ -23,11 +28,19 @@ public class CurrencyRateConversionProviderTest {
 
     @Autowired
     private CurrencyRepository currencyRepository;
+    @Autowired
+    private CurrencyRateSource currencyRateSource;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private ChangeLog changeLog;
     private CurrencyConversionProvider currencyConversionProvider;
 
     @Before
     public void setup() {
-        currencyConversionProvider = new CurrencyConversionProvider(currencyRepository);
+        currencyConversionProvider = new CurrencyConversionProvider(currencyRepository, currencyRateSource);
     }
 
     @Test
@@ -49,6 +62,32 @@ public class CurrencyRateConversionProviderTest {
         assertTrue(currencyConversionProvider.convertFromEuroTo(1.0, "USD") != 1.5033);
     }
 
+    @Test
+    public void shouldReplaceRateSetsWithNewerVersions() throws CurrencyISONotFoundException {
+        currencyRepository.deleteAll();
+
+        for (int i = 0; i < 5; i++)
+            assertTrue(currencyConversionProvider.updateCurrencies());
+
+        // the latest set is served, older sets are pruned
+        assertEquals(5L, currencyConversionProvider.getSnapshot().getVersion());
+        assertEquals(5L, (long) currencyRepository.findTopByOrderByVersionDesc().getVersion());
+        assertEquals(3, currencyRepository.count());
+        assertEquals(132.0, currencyConversionProvider.convertFromEuroTo(1.0, "JPY"), 0.0);
+    }
+
+    @Test
+    public void shouldKeepStoredRatesIfSourceIsNotAvailable() throws CurrencyISONotFoundException {
+        init();
+
+        CurrencyConversionProvider offline = new CurrencyConversionProvider(currencyRepository, () -> {
+            throw new IOException("offline");
+        });
+
+        assertFalse(offline.updateCurrencies());
+        assertEquals(1.1834, offline.convertFromEuroTo(1.0, "USD"), 0.0);
+    }
+
     @Test
     public void shouldAdaptCurrencies() {
         init();
@@ -62,33 +101,111 @@ public class CurrencyRateConversionProviderTest {
 
         // adapt currency from EUR to USD
         currencyConversionProvider.adaptCurrency("USD", product);
-        assertEquals(1.1834, product.getValue(), 0.0);
+        assertEquals(1.18, product.getValue(), 0.0);
+        assertEquals(118L, product.getAmount());
         assertEquals("USD", product.getCurrencyIso());
 
         // convert BGN to EUR
         product = Product.newProduct("p2", 1.0, "BGN");
         currencyConversionProvider.adaptCurrency("EUR", product);
-        assertEquals(0.526, product.getValue(), 0.001);
+        assertEquals(0.53, product.getValue(), 0.0);
         assertEquals("EUR", product.getCurrencyIso());
 
         // convert USD to BGN
         product = Product.newProduct("p3", 99.99, "USD");
         currencyConversionProvider.adaptCurrency("BGN", product);
-        assertEquals(160.53827953354738, product.getValue(), 0.0);
+        assertEquals(160.54, product.getValue(), 0.0);
+        assertEquals(16054L, product.getAmount());
         assertEquals("BGN", product.getCurrencyIso());
     }
 
+    @Test
+    public void shouldConvertMinorUnitsExactly() throws CurrencyISONotFoundException {
+        Map<String, Double> rates = new HashMap<>();
+        rates.put("USD", 1.1834);
+        rates.put("JPY", 132.0);
+        CurrencyRateSnapshot snapshot = new CurrencyRateSnapshot(1, rates);
+
+        assertEquals(2, snapshot.getScale("EUR"));
+        assertEquals(0, snapshot.getScale("JPY"));
+        assertEquals(118340L, snapshot.convert(100000L, "EUR", "USD"));
+        assertEquals(100000L, snapshot.convert(118340L, "USD", "EUR"));
+        assertEquals(132L, snapshot.convert(100L, "eur", "JPY"));
+        assertEquals(100L, snapshot.convert(132L, "JPY", "EUR"));
+        assertEquals(42L, snapshot.convert(42L, "USD", "USD"));
+
+        // exact ties are rounded half even, a binary multiply by 1.1 or 1.15 rounds them the other way
+        rates.put("CHF", 1.1);
+        rates.put("GBP", 1.15);
+        snapshot = new CurrencyRateSnapshot(2, rates);
+        assertEquals(60L, snapshot.convert(55L, "EUR", "CHF"));
+        assertEquals(-60L, snapshot.convert(-55L, "EUR", "CHF"));
+        assertEquals(58L, snapshot.convert(50L, "EUR", "GBP"));
+        assertEquals(23L, snapshot.convert(22L, "CHF", "GBP"));
+        assertEquals(22L, snapshot.convert(23L, "GBP", "CHF"));
+
+        // products beyond a long are still exact, results beyond a long are refused
+        assertEquals(6087425544324152032L, snapshot.convert(Long.MAX_VALUE / 2, "EUR", "JPY"));
+        try {
+            snapshot.convert(Long.MAX_VALUE, "EUR", "JPY");
+            fail();
+        } catch (ArithmeticException expected) {
+        }
+
+        // decimal values are rounded half to even into minor units
+        assertEquals(2L, Money.toMinorUnits(0.015, 2));
+        assertEquals(2L, Money.toMinorUnits(0.025, 2));
+        assertEquals(99.99, Money.toValue(Money.toMinorUnits(99.99, 2), 2), 0.0);
+    }
+
+    @Test
+    public void shouldConvertFromSnapshotWithoutRepository() throws CurrencyISONotFoundException {
+        init();
+        assertEquals(1L, currencyConversionProvider.getSnapshot().getVersion());
+
+        // conversions are served from the snapshot, even if the repository is gone
+        currencyRepository.deleteAll();
+        assertEquals(1.1834, currencyConversionProvider.convertFromEuroTo(1.0, "USD"), 0.0);
+        assertTrue(currencyConversionProvider.getSnapshot().contains("USD"));
+
+        // reloading swaps in a new (empty) snapshot
+        CurrencyRateSnapshot snapshot = currencyConversionProvider.reloadRates();
+        assertTrue(snapshot.isEmpty());
+        assertSame(snapshot, currencyConversionProvider.getSnapshot());
+    }
+
+    @Test
+    public void shouldLoadStoredRatesWithoutRefresh() throws InterruptedException {
+        init();
+        CurrencyConversionProvider starting = new CurrencyConversionProvider(currencyRepository, currencyRateSource);
+        CurrencyRefreshScheduler scheduler = new CurrencyRefreshScheduler(starting, productRepository, meterRegistry, changeLog);
+        ReflectionTestUtils.setField(scheduler, "enabled", false);
+
+        scheduler.start();
+        try {
+            for (int i = 0; i < 100 && starting.getSnapshot().isEmpty(); i++)
+                Thread.sleep(50);
+        } finally {
+            scheduler.stop();
+        }
+
+        // stored rates are served, the source has not been asked
+        assertEquals(1L, starting.getSnapshot().getVersion());
+        assertTrue(starting.getSnapshot().contains("USD"));
+        assertEquals(1, currencyRepository.count());
+    }
+
     private void init() {
 
         currencyRepository.deleteAll();
 
-        List<CurrencyRate> currencies = Arrays.asList(
-                new CurrencyRate("AUD", 1.5033),
-                new CurrencyRate("BGN", 1.90),
-                new CurrencyRate("USD", 1.1834),
-                new CurrencyRate("PHP", 60.345)
-        );
+        Map<String, Double> rates = new HashMap<>();
+        rates.put("AUD", 1.5033);
+        rates.put("BGN", 1.90);
+        rates.put("USD", 1.1834);
+        rates.put("PHP", 60.345);
 
-        currencyRepository.save(currencies);
+        currencyRepository.save(new CurrencyRateSet(1L, rates));
+        currencyConversionProvider.reloadRates();
     }
 }
@@ -1,34 +1,80 @@
 package com.sander.store.rest;
 
+import com.jayway.jsonpath.JsonPath;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBObject;
 import com.sander.store.StoreApplication;
+import com.sander.store.batch.CategoryProductsBatcher;
+import com.sander.store.cache.CategoryChangeCounter;
+import com.sander.store.cache.ProductCache;
+import com.sander.store.changes.ChangeLog;
 import com.sander.store.currency.CurrencyConversionProvider;
+import com.sander.store.currency.CurrencyRateSet;
+import com.sander.store.jobs.RequestExecutors;
 import com.sander.store.pojo.Category;
 import com.sander.store.pojo.Product;
+import com.sander.store.pojo.ProductData;
 import com.sander.store.repository.CategoryRepository;
 import com.sander.store.repository.ProductRepository;
+import com.sander.store.search.ProductSearchIndex;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.spring.web.servlet.WebMvcMetricsFilter;
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.mock.http.MockHttpOutputMessage;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -50,6 +96,24 @@ public class CategoryProductRestControllerTest {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private CurrencyConversionProvider currencyConversionProvider;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    private CategoryChangeCounter categoryChangeCounter;
+
+    @Autowired
+    private CategoryProductRestController categoryProductRestController;
+
     @Autowired
     private WebApplicationContext webApplicationContext;
 
@@ -68,6 +132,7 @@ public class CategoryProductRestControllerTest {
     @Before
     public void setup() {
         mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        currencyConversionProvider.updateCurrencies();
     }
 
     @Test
@@ -123,9 +188,96 @@ public class CategoryProductRestControllerTest {
         mockMvc.perform(get("/products?currencyIso=BGN"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(contentType))
+                .andExpect(header().string("X-Currency-Rates-Version", notNullValue()))
                 .andExpect(jsonPath("$[0].currencyIso", is("BGN")))
                 .andExpect(jsonPath("$[1].currencyIso", is("BGN")));
 
+        // should filter and sort by price, 99.99 USD are cheaper than 99.99 EUR
+        mockMvc.perform(get("/products?sort=price"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("Product2", "Product1")));
+
+        mockMvc.perform(get("/products?sort=-price&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("Product1")));
+
+        mockMvc.perform(get("/products?minPrice=90&maxPrice=100"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("Product1")));
+
+        mockMvc.perform(get("/products?minPrice=100&currencyIso=USD"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Currency-Rates-Version", notNullValue()))
+                .andExpect(jsonPath("$[*].name", contains("Product1")))
+                .andExpect(jsonPath("$[0].currencyIso", is("USD")));
+
+        mockMvc.perform(get("/products?sort=name"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/products?minPrice=100&maxPrice=10"))
+                .andExpect(status().isBadRequest());
+
+        // base prices are up to date, products stored without one are priced
+        assertEquals(0, productRepository.updateBasePrices(currencyConversionProvider.getSnapshot()));
+        Product unpriced = productRepository.save(Product.newProduct("Unpriced", 50, "USD"));
+        assertEquals(1, productRepository.updateBasePrices(currencyConversionProvider.getSnapshot()));
+        mockMvc.perform(get("/products?maxPrice=50"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("Unpriced")));
+        productRepository.delete(unpriced.getId());
+
+        // should page through all products ordered by id
+        MvcResult page = mockMvc.perform(get("/products?limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)))
+                .andExpect(header().string("X-Next-After", notNullValue()))
+                .andReturn();
+
+        mockMvc.perform(get("/products?limit=2&after=" + page.getResponse().getHeader("X-Next-After")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)))
+                .andExpect(header().doesNotExist("X-Next-After"));
+
+        mockMvc.perform(get("/products?after=noObjectId"))
+                .andExpect(status().isBadRequest());
+
+        // should stream all products as JSON array and as newline delimited JSON
+        MvcResult stream = mockMvc.perform(get("/products?stream=json&currencyIso=BGN"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        stream.getAsyncResult();
+        mockMvc.perform(asyncDispatch(stream))
+                .andExpect(status().isOk());
+        assertEquals(Arrays.asList("BGN", "BGN"),
+                JsonPath.read(stream.getResponse().getContentAsString(), "$[*].currencyIso"));
+
+        stream = mockMvc.perform(get("/products?stream=ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        stream.getAsyncResult();
+        mockMvc.perform(asyncDispatch(stream))
+                .andExpect(status().isOk());
+        assertEquals(2, stream.getResponse().getContentAsString().split("\n").length);
+
+        mockMvc.perform(get("/products?stream=xml"))
+                .andExpect(status().isBadRequest());
+
+        // without filters all products are returned, pages only if asked for
+        List<Product> paged = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            paged.add(productRepository.save(Product.newProduct("Paged" + i, 1, "EUR")));
+        mockMvc.perform(get("/products"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(102)))
+                .andExpect(header().doesNotExist("X-Next-After"));
+        mockMvc.perform(get("/products?limit=100"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(100)))
+                .andExpect(header().string("X-Next-After", notNullValue()));
+        productRepository.delete(paged);
+
         List<Product> products = productRepository.findAll();
 
         // should return a single product by id or name
@@ -153,18 +305,74 @@ public class CategoryProductRestControllerTest {
                 .andExpect(jsonPath("$[0].id", is(testProduct.getId())))
                 .andExpect(jsonPath("$[0].currencyIso", is("USD")));
 
+        // should not send an unchanged product again, but once it has been updated
+        String productETag = mockMvc.perform(get("/products?id=" + testProduct.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", notNullValue()))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/products?id=" + testProduct.getId()).header("If-None-Match", productETag))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(get("/products?currencyIso=USD&id=" + testProduct.getId()).header("If-None-Match", productETag))
+                .andExpect(status().isOk());
+
         // should update project using id, update name or value but updating currency is currently not allowed
         mockMvc.perform(post("/products?id=" + testProduct.getId())
                     .content("{\"name\":\"Product1Update\"}"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("name", is("Product1Update")));
 
+        mockMvc.perform(get("/products?id=" + testProduct.getId()).header("If-None-Match", productETag))
+                .andExpect(status().isOk());
+
+        // cached lookups should see the update
+        mockMvc.perform(get("/products?id=" + testProduct.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name", is("Product1Update")))
+                .andExpect(jsonPath("$[0].currencyIso", is(testProduct.getCurrencyIso())));
+
+        mockMvc.perform(get("/products?name=Product1Update"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)));
+
+        // should find the updated name by prefix, but not the old one
+        mockMvc.perform(get("/products/search?q=product1up"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("Product1Update")));
+
+        mockMvc.perform(get("/products/search?q=PRODUCT&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)));
+
+        mockMvc.perform(get("/products/search?q=product1&limit=1000"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/cache/products"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("byId.hits", greaterThan(0)));
+
         // should update value
         mockMvc.perform(post("/products?id=" + testProduct.getId())
                     .content("{\"value\":10000.0}"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("value", is(10000.0)));
 
+        // integer values are fine as well
+        mockMvc.perform(post("/products?id=" + testProduct.getId())
+                    .contentType(contentType).content("{\"value\":12000}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("value", is(12000.0)));
+
+        // should not update because name is null or body is no valid JSON
+        mockMvc.perform(post("/products?id=" + testProduct.getId())
+                    .contentType(contentType).content("{\"name\":null}"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(post("/products?id=" + testProduct.getId())
+                    .contentType(contentType).content("{\"value\":"))
+                .andExpect(status().isBadRequest());
+
         // should not update because invalid value
         mockMvc.perform(post("/products?id=" + testProduct.getId())
                     .content("{\"value\":-121212}"))
@@ -175,10 +383,44 @@ public class CategoryProductRestControllerTest {
                         .content("{\"name\":\"NewProduct\"}"))
                 .andExpect(status().isNotFound());
 
+        // should only update the version the update is based on
+        String currentETag = mockMvc.perform(get("/products?id=" + testProduct.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(post("/products?id=" + testProduct.getId()).header("If-Match", productETag)
+                    .contentType(contentType).content("{\"name\":\"Stale\"}"))
+                .andExpect(status().isPreconditionFailed());
+
+        mockMvc.perform(post("/products?id=" + testProduct.getId())
+                    .contentType(contentType).content("{\"name\":\"Stale\",\"version\":0}"))
+                .andExpect(status().isConflict());
+
+        String nextETag = mockMvc.perform(post("/products?id=" + testProduct.getId()).header("If-Match", currentETag)
+                    .contentType(contentType).content("{\"name\":\"Product1Match\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("name", is("Product1Match")))
+                .andExpect(jsonPath("value", is(12000.0)))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/products?id=" + testProduct.getId()).header("If-None-Match", nextETag))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(post("/products?id=" + testProduct.getId()).header("If-Match", currentETag)
+                    .contentType(contentType).content("{\"name\":\"Stale\"}"))
+                .andExpect(status().isPreconditionFailed());
+
         // should delete project
         mockMvc.perform(delete("/products?id=" + testProduct.getId()))
                 .andExpect(status().isOk());
 
+        mockMvc.perform(get("/products?id=" + testProduct.getId()))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(get("/products/search?q=product1"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[]"));
+
         // now there should only be one entry inside product repository
         mockMvc.perform(get("/products"))
                 .andExpect(status().isOk())
@@ -228,7 +470,7 @@ public class CategoryProductRestControllerTest {
                 .andExpect(jsonPath("value", is(1000.99)))
                 .andExpect(jsonPath("currencyIso", is("EUR")));
 
-        List<Product> products = productRepository.findAll();
+        List<Product> products = productRepository.findAll(new Sort("name"));
 
         // should create a category
         mockMvc.perform(put("/categories/category1").content(addProductId(products.get(0).getId())))
@@ -240,7 +482,8 @@ public class CategoryProductRestControllerTest {
         mockMvc.perform(put("/categories/category1_subCategory").content(addProductId(products.get(1).getId())))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("name", is("subCategory")))
-                .andExpect(jsonPath("categoryPath", is("category1_subCategory")));
+                .andExpect(jsonPath("categoryPath", is("category1_subCategory")))
+                .andExpect(jsonPath("ancestors", is(Collections.singletonList("category1"))));
 
         // should create a category without products
         mockMvc.perform(put("/categories/category2"))
@@ -249,9 +492,38 @@ public class CategoryProductRestControllerTest {
                 .andExpect(jsonPath("categoryPath", is("category2")));
 
         // should return all categories
-        mockMvc.perform(get("/categories"))
+        String categoriesETag = mockMvc.perform(get("/categories"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$", iterableWithSize(3)));
+                .andExpect(jsonPath("$", iterableWithSize(3)))
+                .andReturn().getResponse().getHeader("ETag");
+
+        // should not send unchanged categories again
+        mockMvc.perform(get("/categories").header("If-None-Match", categoriesETag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        // the same categories gzip'd, either ETag is current
+        MvcResult gzipped = mockMvc.perform(get("/categories").header("Accept-Encoding", "deflate, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andReturn();
+        String gzipETag = gzipped.getResponse().getHeader("ETag");
+        assertThat(gzipETag, not(categoriesETag));
+        String unzipped = StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(
+                gzipped.getResponse().getContentAsByteArray())), StandardCharsets.UTF_8);
+        assertEquals(mockMvc.perform(get("/categories")).andReturn().getResponse().getContentAsString(), unzipped);
+        assertThat(JsonPath.read(unzipped, "$"), iterableWithSize(3));
+
+        mockMvc.perform(get("/categories").header("If-None-Match", gzipETag).header("Accept-Encoding", "gzip"))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/categories").header("Accept-Encoding", "gzip;q=0, identity"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(header().string("ETag", categoriesETag));
+
+        mockMvc.perform(get("/categories/category1").header("If-None-Match", categoriesETag))
+                .andExpect(status().isNotModified());
 
         // should return category1 and subcategory
         mockMvc.perform(get("/categories/category1"))
@@ -285,7 +557,18 @@ public class CategoryProductRestControllerTest {
         // change name of category1 to category1Changed, all subcategories should now be adapted as well
         mockMvc.perform(post("/categories/category1").content("{\"name\":\"category1Changed\"}"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("name", is("category1Changed")));
+                .andExpect(header().string("X-Descendants-Updated", "2"))
+                .andExpect(jsonPath("name", is("category1Changed")))
+                .andExpect(jsonPath("categoryPath", is("category1Changed")));
+
+        // categories have changed
+        mockMvc.perform(get("/categories").header("If-None-Match", categoriesETag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(categoriesETag)));
+
+        // should not rename onto an existing category
+        mockMvc.perform(post("/categories/category1Changed_subCategory").content("{\"name\":\"subCategory2\"}"))
+                .andExpect(status().isConflict());
 
         mockMvc.perform(get("/categories/category1Changed"))
                 .andExpect(status().isOk())
@@ -293,24 +576,604 @@ public class CategoryProductRestControllerTest {
 
         // should add Product3 to subCategory2
         mockMvc.perform(post("/categories/category1Changed_subCategory2/products/add").content(addProductId(products.get(2).getId())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("matched", is(1)))
+                .andExpect(jsonPath("modified", is(1)));
+
+        // adding it again does not modify the category
+        mockMvc.perform(post("/categories/category1Changed_subCategory2/products/add?full=true").content(addProductId(products.get(2).getId())))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("products",  is(Arrays.asList(products.get(2).getId()))));
 
+        mockMvc.perform(post("/categories/category1Changed_subCategory2/products/add").content(addProductId(products.get(2).getId())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("modified", is(0)));
+
+        mockMvc.perform(post("/categories/unknownCategory/products/add").content(addProductId(products.get(2).getId())))
+                .andExpect(status().isNotFound());
+
         // should remove Product1 from category1Changed
-        mockMvc.perform(post("/categories/category1Changed/products/remove").content(addProductId(products.get(0).getId())))
+        mockMvc.perform(post("/categories/category1Changed/products/remove?full=true").content(addProductId(products.get(0).getId())))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("products", is(Collections.emptyList())));
 
+        // should find the categories of Product3 and remove it from them when it is deleted
+        String subCategory2 = categoryRepository.findByCategoryPath("category1Changed_subCategory2").getId();
+        mockMvc.perform(get("/products/categories?id=" + products.get(2).getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", is(Collections.singletonList(subCategory2))));
+
+        mockMvc.perform(delete("/products?id=" + products.get(2).getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Categories-Updated", "1"));
+
+        mockMvc.perform(get("/categories/category1Changed_subCategory2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].products", is(Collections.emptyList())));
+
+        // a category sharing only a name prefix is no subcategory
+        mockMvc.perform(put("/categories/category1ChangedOutlet"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("ancestors", iterableWithSize(0)));
+
+        mockMvc.perform(get("/categories/category1Changed"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(3)));
 
         // should delete category
         mockMvc.perform(delete("/categories/category1Changed"))
                 .andExpect(status().isOk())
+                .andExpect(header().string("X-Categories-Deleted", "3"))
                 .andExpect(jsonPath("name", is("category1Changed")));
+
+        mockMvc.perform(get("/categories/category1Changed_subCategory2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(0)));
+
+        mockMvc.perform(get("/categories/category1ChangedOutlet"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)));
+
+        // should delete category in the background
+        String job = mockMvc.perform(delete("/categories/category1ChangedOutlet?async=true"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", startsWith("/jobs/")))
+                .andReturn().getResponse().getHeader("Location");
+
+        for(int i = 0; i < 50 && !mockMvc.perform(get(job)).andReturn().getResponse().getContentAsString().contains("DONE"); i++)
+            Thread.sleep(100);
+
+        mockMvc.perform(get(job))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("state", is("DONE")))
+                .andExpect(jsonPath("result", is(1)));
+
+        // should create products from newline delimited JSON and add them to their category
+        String category2 = categoryRepository.findByCategoryPath("category2").getId();
+        String batch = "{\"name\":\"Batch1\",\"value\":10,\"category\":\"" + category2 + "\"}\n" +
+                "\n" +
+                "{\"name\":\"Batch2\",\"value\":-1}\n" +
+                "{\"name\":\"Batch3\",\"value\":2.5,\"currencyIso\":\"USD\",\"category\":\"" + category2 + "\"}\n" +
+                "no json";
+
+        String results = mockMvc.perform(put("/products/batch?chunkSize=2").content(batch))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertEquals(Arrays.asList(1, 3, 4, 5), JsonPath.read("[" + results.trim().replace("\n", ",") + "]", "$[*].line"));
+        assertEquals(Arrays.asList("CREATED", "INVALID", "CREATED", "INVALID"),
+                JsonPath.read("[" + results.trim().replace("\n", ",") + "]", "$[*].status"));
+
+        mockMvc.perform(get("/categories/category2/products"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(2)));
+
+        // should page through the products of a category ordered by id
+        String next = mockMvc.perform(get("/categories/category2/products?limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)))
+                .andExpect(header().string("X-Next-After", notNullValue()))
+                .andReturn().getResponse().getHeader("X-Next-After");
+
+        mockMvc.perform(get("/categories/category2/products?limit=5&after=" + next))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)))
+                .andExpect(jsonPath("$[0].id", greaterThan(next)))
+                .andExpect(header().doesNotExist("X-Next-After"));
+
+        // should only return the requested fields, converted into the requested currency
+        mockMvc.perform(get("/categories/category2/products?fields=name&currencyIso=USD"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Currency-Rates-Version", notNullValue()))
+                .andExpect(jsonPath("$[0].id", notNullValue()))
+                .andExpect(jsonPath("$[0].name", notNullValue()))
+                .andExpect(jsonPath("$[0].value").doesNotExist());
+
+        mockMvc.perform(get("/categories/category2/products?fields=value,currencyIso&currencyIso=USD"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].currencyIso", everyItem(is("USD"))))
+                .andExpect(jsonPath("$[0].name").doesNotExist());
+
+        mockMvc.perform(get("/categories/category2/products?fields=categories"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/categories/category2/products?limit=0"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/categories/unknown/products"))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(put("/products/batch?chunkSize=0").content(batch))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldReportSubcategoriesMovedBeforeAFailedRename() throws Exception {
+
+        clear();
+
+        for (String path : Arrays.asList("moving", "moving_a", "moving_b"))
+            mockMvc.perform(put("/categories/" + path))
+                    .andExpect(status().isOk());
+
+        // lets the move of moving_b fail, its version can not be incremented
+        Query movingB = new Query(where("categoryPath").is("moving_b"));
+        mongoOperations.updateFirst(movingB, new Update().set("version", "broken"), Category.class);
+        mockMvc.perform(post("/categories/moving").contentType(contentType).content("{\"name\":\"moved\"}"))
+                .andExpect(status().isInternalServerError())
+                .andExpect(header().string("X-Descendants-Updated", "1"));
+
+        // the category is renamed last, so the rename can be repeated
+        mongoOperations.updateFirst(movingB, new Update().set("version", 0L), Category.class);
+        assertEquals(2, categoryRepository.findSubtree("moving").size());
+        mockMvc.perform(post("/categories/moving").contentType(contentType).content("{\"name\":\"moved\"}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Descendants-Updated", "1"));
+        assertEquals(3, categoryRepository.findSubtree("moved").size());
+
+        // keeping the name writes nothing
+        long version = categoryVersion("moved_a");
+        mockMvc.perform(post("/categories/moved").contentType(contentType).content("{\"name\":\"moved\"}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Descendants-Updated", "0"));
+        assertEquals(version, categoryVersion("moved_a"));
+    }
+
+    @Test
+    public void shouldPageOrderedProductsOfCategories() throws Exception {
+
+        clear();
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            ids.add(productRepository.save(Product.newProduct("Paged" + i, 1 + i, "EUR")).getId());
+        Collections.sort(ids);
+
+        mockMvc.perform(put("/categories/paged").contentType(contentType)
+                        .content("{\"products\":" + json(ids.subList(0, 5)) + "}"))
+                .andExpect(status().isOk());
+        List<String> reversed = new ArrayList<>(ids.subList(5, 25));
+        Collections.reverse(reversed);
+        mockMvc.perform(post("/categories/paged/products/add").contentType(contentType)
+                        .content("{\"products\":" + json(reversed) + "}"))
+                .andExpect(status().isOk());
+        assertEquals(ids, pageProductIds("paged", 10));
+
+        mockMvc.perform(post("/categories/paged/products/remove").contentType(contentType).content(addProductId(ids.get(3))))
+                .andExpect(status().isOk());
+        mockMvc.perform(delete("/products?id=" + ids.get(7)))
+                .andExpect(status().isOk());
+        List<String> remaining = new ArrayList<>(ids);
+        remaining.remove(7);
+        remaining.remove(3);
+        assertEquals(remaining, pageProductIds("paged", 10));
+
+        // categories stored before their products were kept ordered
+        List<String> unordered = new ArrayList<>(remaining);
+        Collections.reverse(unordered);
+        mongoOperations.updateFirst(new Query(where("categoryPath").is("paged")), Update.update("products", unordered), Category.class);
+        assertEquals(1, categoryRepository.sortProducts());
+        assertEquals(0, categoryRepository.sortProducts());
+        assertEquals(remaining, pageProductIds("paged", 7));
+
+        // ids are compared as strings, not as ObjectIds
+        mockMvc.perform(post("/categories/paged/products/add").contentType(contentType)
+                        .content("{\"products\":[\"b\",\"a\"]}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/categories/paged/products?after=" + remaining.get(22)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-After"))
+                .andExpect(jsonPath("$", iterableWithSize(0)));
+        assertEquals(Arrays.asList(remaining.get(22), "a", "b"), categoryRepository.findProductIds("paged", remaining.get(21), 5));
+        assertEquals(Collections.singletonList("b"), categoryRepository.findProductIds("paged", "a", 5));
+        assertNull(categoryRepository.findProductIds("unknown", null, 5));
+    }
+
+    @Test
+    public void shouldHandleRequestsAsynchronously() throws Exception {
+
+        clear();
+
+        async(put("/async/categories/asyncCategory"))
+                .andExpect(status().isOk());
+        String category = categoryRepository.findByCategoryPath("asyncCategory").getId();
+
+        // product is added to its category while it is inserted
+        String id = JsonPath.read(async(put("/async/products").contentType(contentType)
+                        .content("{\"name\":\"Async1\",\"value\":5,\"category\":\"" + category + "\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("name", is("Async1")))
+                .andReturn().getResponse().getContentAsString(), "$.id");
+
+        async(put("/async/products").contentType(contentType).content("{\"name\":\"Async2\"}"))
+                .andExpect(status().isBadRequest());
+
+        async(get("/async/products?currencyIso=USD&id=" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].currencyIso", is("USD")));
+
+        async(get("/async/categories/asyncCategory/products"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].id", contains(id)));
+
+        async(get("/async/products/search?q=async"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", iterableWithSize(1)));
+
+        async(delete("/async/products?id=" + id))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Categories-Updated", "1"));
+
+        async(get("/async/products?id=" + id))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void shouldAddCreatedProductToCategoryIfReadsAreSaturated() throws Exception {
+
+        clear();
+
+        mockMvc.perform(put("/categories/saturated"))
+                .andExpect(status().isOk());
+        String category = categoryRepository.findByCategoryPath("saturated").getId();
+
+        // one read running, one queued, the next one is rejected
+        RequestExecutors executors = new RequestExecutors(1, 1, 1, 1, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 2; i++)
+                executors.read(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new ResponseEntity<>(HttpStatus.OK);
+                });
+            assertEquals(new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE),
+                    executors.read(() -> new ResponseEntity<>(HttpStatus.OK)).getResult());
+
+            ProductData data = new ProductData();
+            data.setName("Saturated");
+            data.setValue(5.0);
+            data.setCategory(category);
+            ResponseEntity<Product> created = categoryProductRestController.createProduct(data, executors.lookups());
+
+            assertEquals(HttpStatus.OK, created.getStatusCode());
+            assertThat(categoryRepository.findByCategoryPath("saturated").getProducts(),
+                    contains(created.getBody().getId()));
+        } finally {
+            release.countDown();
+            executors.stop();
+        }
+    }
+
+    @Test
+    public void shouldRecordRequestMetrics() throws Exception {
+
+        clear();
+
+        MockMvc measured = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .addFilters(webApplicationContext.getBean(WebMvcMetricsFilter.class))
+                .build();
+
+        String id = JsonPath.read(measured.perform(put("/products").contentType(contentType)
+                        .content("{\"name\":\"Measured\",\"value\":5}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), "$.id");
+
+        measured.perform(get("/products?currencyIso=USD&id=" + id))
+                .andExpect(status().isOk());
+
+        // latency percentiles and Mongo commands by endpoint, meters are shared with the other tests
+        mockMvc.perform(get("/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(
+                        "http_server_requests_seconds{exception=\"None\",method=\"GET\",status=\"200\",uri=\"/products\",quantile=\"0.99\",}")))
+                .andExpect(content().string(containsString(
+                        "store_requests_mongo_commands_count{method=\"GET\",uri=\"/products\",}")))
+                .andExpect(content().string(containsString(
+                        "store_requests_mongo_documents_count{method=\"PUT\",operation=\"written\",uri=\"/products\",}")))
+                .andExpect(content().string(containsString("mongo_commands_seconds_count{command=\"insert\"")))
+                .andExpect(content().string(containsString("store_currency_conversions_seconds_count")));
+
+        Map<String, Object> metrics = JsonPath.read(mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), "$");
+        assertThat((Double) metrics.get("store.requests.mongo.commands{method=PUT,uri=/products}.max"),
+                greaterThanOrEqualTo(1.0));
+        assertThat((Double) metrics.get("http.server.requests{exception=None,method=GET,status=200,uri=/products}.p99"),
+                greaterThan(0.0));
+    }
+
+    @Test
+    public void shouldCoalesceCategoryProductChanges() throws Exception {
+
+        clear();
+
+        mockMvc.perform(put("/categories/batched"))
+                .andExpect(status().isOk());
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CategoryProductsBatcher batcher = new CategoryProductsBatcher(categoryRepository, meterRegistry, true, 500, 4, 2);
+        ExecutorService requests = Executors.newFixedThreadPool(4);
+
+        try {
+            // concurrent changes within the window share one write and its result
+            List<Future<UpdateResult>> results = new ArrayList<>();
+            for (String product : Arrays.asList("p1", "p2"))
+                results.add(requests.submit(() -> batcher.updateProducts("batched",
+                        Collections.singletonList(product), Collections.emptyList())));
+            results.add(requests.submit(() -> batcher.updateProducts("batched",
+                    Collections.emptyList(), Collections.singletonList("p3"))));
+
+            UpdateResult result = results.get(0).get(5, TimeUnit.SECONDS);
+            assertEquals(1, result.getMatched());
+            assertEquals(1, result.getModified());
+            for (Future<UpdateResult> other : results)
+                assertSame(result, other.get(5, TimeUnit.SECONDS));
+            assertThat(categoryRepository.findByCategoryPath("batched").getProducts(), containsInAnyOrder("p1", "p2"));
+
+            DistributionSummary batches = meterRegistry.find("store.category.batches.requests").tag("trigger", "window").summary();
+            assertEquals(1, batches.count());
+            assertEquals(3.0, batches.totalAmount(), 0.0);
+
+            // a full batch is written without waiting for the window, the last change of a product wins
+            result = batcher.updateProducts("batched", Arrays.asList("p3", "p4", "p5"), Arrays.asList("p1", "p3"));
+            assertEquals(1, result.getModified());
+            assertThat(categoryRepository.findByCategoryPath("batched").getProducts(), containsInAnyOrder("p2", "p4", "p5"));
+            assertEquals(1, meterRegistry.find("store.category.batches.flushes").tag("trigger", "size").timer().count());
+
+            assertEquals(0, batcher.updateProducts("missing", Collections.singletonList("p1"), Collections.emptyList()).getMatched());
+        } finally {
+            requests.shutdownNow();
+            batcher.stop();
+        }
+    }
+
+    @Test
+    public void shouldRaiseVersionOfCategoriesChangingProducts() throws Exception {
+
+        clear();
+
+        mockMvc.perform(put("/categories/versioned"))
+                .andExpect(status().isOk());
+        Category category = categoryRepository.findByCategoryPath("versioned");
+        long version = categoryVersion("versioned");
+
+        BulkWriteResult result = categoryRepository.updateProducts("versioned", Arrays.asList("p2", "p1"), Collections.emptyList());
+        assertEquals(2, result.getModifiedCount());
+        assertEquals(version + 2, categoryVersion("versioned"));
+
+        // adding and removing nothing new keeps the version, the category is still matched
+        result = categoryRepository.updateProducts("versioned", Collections.singletonList("p1"), Collections.singletonList("p3"));
+        assertEquals(1, result.getMatchedCount());
+        assertEquals(0, result.getModifiedCount());
+        assertEquals(version + 2, categoryVersion("versioned"));
+
+        categoryRepository.updateProducts("versioned", Collections.singletonList("p3"), Collections.singletonList("p1"));
+        assertEquals(version + 4, categoryVersion("versioned"));
+
+        assertEquals(1, categoryRepository.addProductsById(Collections.singletonMap(category.getId(), Arrays.asList("p2", "p4"))));
+        assertEquals(0, categoryRepository.addProductsById(Collections.singletonMap(category.getId(), Collections.singletonList("p4"))));
+        assertEquals(version + 5, categoryVersion("versioned"));
+        assertThat(categoryRepository.findByCategoryPath("versioned").getProducts(), contains("p2", "p3", "p4"));
+
+        assertEquals(0, categoryRepository.updateProducts("missing", Collections.singletonList("p1"), Collections.emptyList()).getMatchedCount());
+    }
+
+    @Test
+    public void shouldFlushCategoriesConcurrently() throws Exception {
+
+        clear();
+
+        // categories of different flushers
+        String blockedPath = "blocked", candidate = "other";
+        for (int i = 0; Math.floorMod(candidate.hashCode(), 2) == Math.floorMod(blockedPath.hashCode(), 2); i++)
+            candidate = "other" + i;
+        String otherPath = candidate;
+        for (String path : Arrays.asList(blockedPath, otherPath))
+            mockMvc.perform(put("/categories/" + path))
+                    .andExpect(status().isOk());
+
+        CountDownLatch blocked = new CountDownLatch(1), released = new CountDownLatch(1);
+        CategoryRepository blocking = (CategoryRepository) Proxy.newProxyInstance(
+                CategoryRepository.class.getClassLoader(), new Class<?>[]{CategoryRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("updateProducts") && blockedPath.equals(args[0])) {
+                        blocked.countDown();
+                        released.await();
+                    }
+                    try {
+                        return method.invoke(categoryRepository, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+        CategoryProductsBatcher batcher = new CategoryProductsBatcher(blocking, new SimpleMeterRegistry(), true, 10, 1000, 2);
+        ExecutorService requests = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<UpdateResult> slow = requests.submit(() -> batcher.updateProducts(blockedPath,
+                    Collections.singletonList("p1"), Collections.emptyList()));
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            // written while the other category is still being written
+            assertEquals(1, requests.submit(() -> batcher.updateProducts(otherPath,
+                    Collections.singletonList("p2"), Collections.emptyList())).get(5, TimeUnit.SECONDS).getModified());
+            assertFalse(slow.isDone());
+
+            released.countDown();
+            assertEquals(1, slow.get(5, TimeUnit.SECONDS).getModified());
+        } finally {
+            released.countDown();
+            requests.shutdownNow();
+            batcher.stop();
+        }
+    }
+
+    @Test
+    public void shouldApplyChangesOfOtherNodes() throws Exception {
+
+        clear();
+
+        String id = JsonPath.read(mockMvc.perform(put("/products").contentType(contentType)
+                        .content("{\"name\":\"Shared\",\"value\":5}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), "$.id");
+        String eTag = mockMvc.perform(get("/categories"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        // another node renames the product, this node still serves it from its cache
+        productRepository.updateFields(id, null, Collections.singletonMap("name", "Renamed"));
+        mockMvc.perform(get("/products?id=" + id))
+                .andExpect(jsonPath("$[0].name", is("Shared")));
+
+        ChangeLog otherNode = new ChangeLog(mongoOperations, "other", true, 0);
+        otherNode.publish(ChangeLog.Type.PRODUCT, id);
+        otherNode.publish(ChangeLog.Type.CATEGORY);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && productSearchIndex.search("renamed", 1).isEmpty())
+            Thread.sleep(50);
+
+        mockMvc.perform(get("/products?id=" + id))
+                .andExpect(jsonPath("$[0].name", is("Renamed")));
+        mockMvc.perform(get("/products/search?q=renamed"))
+                .andExpect(jsonPath("$[*].id", contains(id)));
+        mockMvc.perform(get("/categories"))
+                .andExpect(header().string("ETag", not(eTag)));
+
+        // an event with a smaller id than the ones applied already, appended late by a third node
+        productRepository.updateFields(id, null, Collections.singletonMap("name", "Late"));
+        ObjectId last = (ObjectId) mongoOperations.getCollection("changeLog").find()
+                .sort(new BasicDBObject("$natural", -1)).limit(1).next().get("_id");
+        mongoOperations.getCollection("changeLog").insert(new BasicDBObject("_id", new ObjectId(new Date(last.getDate().getTime() - 1000)))
+                .append("node", "late").append("type", ChangeLog.Type.PRODUCT.name()).append("key", id));
+
+        while (System.currentTimeMillis() < deadline && productSearchIndex.search("late", 1).isEmpty())
+            Thread.sleep(50);
+        mockMvc.perform(get("/products?id=" + id))
+                .andExpect(jsonPath("$[0].name", is("Late")));
+
+        // the position is kept for a restart
+        while (System.currentTimeMillis() < deadline
+                && mongoOperations.getCollection("changeLogPositions").count(new BasicDBObject("_id", "test")) == 0)
+            Thread.sleep(50);
+        assertEquals(1, mongoOperations.getCollection("changeLogPositions").count(new BasicDBObject("_id", "test")));
+    }
+
+    @Test
+    public void shouldExportAndImportCatalog() throws Exception {
+
+        clear();
+
+        mockMvc.perform(put("/categories/exported"))
+                .andExpect(status().isOk());
+        String category = categoryRepository.findByCategoryPath("exported").getId();
+        String id = JsonPath.read(mockMvc.perform(put("/products").contentType(contentType)
+                        .content("{\"name\":\"Exported\",\"value\":12.34,\"currencyIso\":\"USD\",\"category\":\"" + category + "\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), "$.id");
+
+        byte[] catalog = mockMvc.perform(get("/catalog"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        String lines = StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(catalog)), StandardCharsets.UTF_8);
+        assertThat(lines, containsString("{ \"product\" : { \"_id\" : { \"$oid\" : \"" + id + "\" }"));
+        assertThat(lines, containsString("\"amount\" : { \"$numberLong\" : \"1234\" }"));
+
+        // import into an empty catalog
+        clear();
+        mongoOperations.dropCollection(CurrencyRateSet.class);
+        mockMvc.perform(put("/catalog").content(catalog))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("product", is(1)))
+                .andExpect(jsonPath("category", is(1)));
+
+        // numbers keep their BSON types, even if they would fit into an int
+        DBObject imported = mongoOperations.getCollection(mongoOperations.getCollectionName(Product.class)).findOne();
+        assertThat(imported.get("_id"), instanceOf(ObjectId.class));
+        assertEquals(1234L, imported.get("amount"));
+        assertThat(imported.get("basePrice"), instanceOf(Long.class));
+        assertThat(imported.get("version"), instanceOf(Long.class));
+        DBObject rates = mongoOperations.getCollection(mongoOperations.getCollectionName(CurrencyRateSet.class)).findOne();
+        assertThat(rates.get("_id"), instanceOf(Long.class));
+
+        mockMvc.perform(get("/products?id=" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].value", is(12.34)))
+                .andExpect(jsonPath("$[0].currencyIso", is("USD")));
+        mockMvc.perform(get("/categories/exported/products"))
+                .andExpect(jsonPath("$[*].id", contains(id)));
+        mockMvc.perform(get("/products/search?q=export"))
+                .andExpect(jsonPath("$[*].id", contains(id)));
+
+        // plain lines are accepted as well, importing again replaces the documents
+        mockMvc.perform(put("/catalog").content(lines))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("product", is(1)));
+        assertEquals(1, productRepository.count());
+
+        mockMvc.perform(put("/catalog").content("{\"product\":{\"name\":\"without id\"}}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private ResultActions async(MockHttpServletRequestBuilder builder) throws Exception {
+        MvcResult result = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
+    private List<String> pageProductIds(String categoryPath, int limit) throws Exception {
+        List<String> ids = new ArrayList<>();
+        String after = null;
+        do {
+            MvcResult page = mockMvc.perform(get("/categories/" + categoryPath + "/products?limit=" + limit
+                            + (after == null ? "" : "&after=" + after)))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            ids.addAll(JsonPath.read(page.getResponse().getContentAsString(), "$[*].id"));
+            after = page.getResponse().getHeader("X-Next-After");
+        } while (after != null);
+        return ids;
+    }
+
+    private long categoryVersion(String categoryPath) {
+        return ((Number) mongoOperations.getCollection(mongoOperations.getCollectionName(Category.class))
+                .findOne(new BasicDBObject("categoryPath", categoryPath)).get("version")).longValue();
     }
 
     private void clear() {
         categoryRepository.deleteAll();
+        categoryChangeCounter.increment();
         productRepository.deleteAll();
+        productCache.invalidateAll();
+        productSearchIndex.clear();
     }
 
     private String addProductId(String id) {
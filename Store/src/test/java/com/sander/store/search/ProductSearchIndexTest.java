@@ -0,0 +1,62 @@
+package com.sander.store.search;
+
+import com.sander.store.pojo.Product;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProductSearchIndexTest {
+
+    private ProductSearchIndex index;
+
+    @Before
+    public void setup() {
+        index = new ProductSearchIndex(null);
+        index.index(product("1", "Red Apple Juice"));
+        index.index(product("2", "Apple"));
+        index.index(product("3", "Pineapple, sliced"));
+        index.index(product("4", "Applesauce"));
+    }
+
+    @Test
+    public void shouldTokenizeNames() {
+        assertEquals(Arrays.asList("pineapple", "sliced", "500g"), ProductSearchIndex.tokenize(" Pineapple, sliced (500g) sliced"));
+        assertEquals(Collections.emptyList(), ProductSearchIndex.tokenize(" - "));
+    }
+
+    @Test
+    public void shouldRankExactMatchesAndNameStartsFirst() {
+        // Apple starts with the query and matches exactly, Red Apple Juice only matches exactly
+        assertEquals(Arrays.asList("2", "1", "4"), index.search("apple", 10));
+        assertEquals(Arrays.asList("2", "1"), index.search("APPLE", 2));
+        assertEquals(Collections.singletonList("3"), index.search("pine", 10));
+    }
+
+    @Test
+    public void shouldMatchAllTerms() {
+        assertEquals(Collections.singletonList("1"), index.search("apple ju", 10));
+        assertEquals(Collections.emptyList(), index.search("apple cider", 10));
+        assertEquals(Collections.emptyList(), index.search("  ", 10));
+    }
+
+    @Test
+    public void shouldFollowUpdatesAndDeletes() {
+        index.index(product("2", "Banana"));
+        assertEquals(Arrays.asList("1", "4"), index.search("apple", 10));
+        assertEquals(Collections.singletonList("2"), index.search("ban", 10));
+
+        index.remove("1");
+        assertEquals(Collections.singletonList("4"), index.search("apple", 10));
+        assertEquals(3, index.size());
+    }
+
+    private static Product product(String id, String name) {
+        Product product = Product.newProduct(name, 1, "EUR");
+        product.setId(id);
+        return product;
+    }
+}